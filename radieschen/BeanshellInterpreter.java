@@ -9,9 +9,15 @@
 package radieschen;
 import bsh.Interpreter;
 import bsh.EvalError;
+import bsh.NameSpace;
 
 public class BeanshellInterpreter implements JXPInterpreter {
 	protected Interpreter i;
+	/**
+	 * the configured name space. Scripts run in a child name space of 
+	 * this, which is thrown away on reset.
+	 */
+	protected NameSpace root;
 	
 	public BeanshellInterpreter(String dir){
 		i = new Interpreter();
@@ -65,5 +71,14 @@ public class BeanshellInterpreter implements JXPInterpreter {
 		try{
 			i.eval("addClassPath(\"" + dir + "\");");
 		}catch(Exception eva){}
+		root = i.getNameSpace();
+		reset();
+	}
+	/**
+	 * forget all variables and methods defined by scripts. This is much 
+	 * cheaper than creating a new Interpreter.
+	 */
+	public void reset(){
+		i.setNameSpace(new NameSpace(root, "jxp"));
 	}
 }
@@ -35,5 +35,10 @@ public interface JXPInterpreter {
 	 * @param dir  The directory for scripts. 
 	 */
 	public void setRadiDir(String dir);
+	/**
+	 * forget everything scripts have defined since the last reset, 
+	 * but keep the configuration, such as the Radieschen directory.
+	 */
+	public void reset();
 
 }
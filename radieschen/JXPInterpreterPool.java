@@ -0,0 +1,98 @@
+/**
+ * This is a pool of JXP interpreters. An interpreter is not thread safe
+ * and holds the state of the scripts of the page being processed. Thus 
+ * each page being processed borrows an interpreter of its own from the 
+ * pool and returns it when done. Returned interpreters are reset and kept 
+ * configured for the Radieschen directory, ready for the next page. 
+ * 
+ * When all interpreters are in use, acquire() waits until one is returned.
+ * 
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.util.Stack;
+
+public class JXPInterpreterPool {
+	protected String radiDir;
+	protected int maxSize, created;
+	private Stack idle;
+	
+	/**
+	 * constructor
+	 * @param dir The Radieschen directory to configure the interpreters for
+	 * @param maxSize The maximum number of interpreters to create
+	 */
+	public JXPInterpreterPool(String dir, int maxSize){
+		radiDir = dir;
+		this.maxSize = Math.max(1, maxSize);
+		idle = new Stack();
+		/*
+		 * there is always at least one page to process, so have one ready
+		 */
+		created = 1;
+		idle.push(createInterpreter());
+	}
+	/**
+	 * create a new interpreter configured for the Radieschen directory. 
+	 * Override in order to use another scripting language. 
+	 * @return A new interpreter
+	 */
+	protected JXPInterpreter createInterpreter(){
+		return new BeanshellInterpreter(radiDir);
+	}
+	/**
+	 * borrow an interpreter. It must be given back with release().
+	 * @return An interpreter for exclusive use by the caller or null when
+	 * the thread has been interrupted while waiting for one. The interrupt
+	 * flag is set again then.
+	 */
+	public JXPInterpreter acquire(){
+		synchronized(this){
+			while(idle.isEmpty() && created >= maxSize){
+				try{
+					wait();
+				}catch(InterruptedException eva){
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			if(!idle.isEmpty()){
+				return (JXPInterpreter)idle.pop();
+			}
+			created++;
+		}
+		/*
+		 * creating an interpreter takes a while: do it without holding 
+		 * up the others
+		 */
+		return createInterpreter();
+	}
+	/**
+	 * give back an interpreter obtained from acquire()
+	 * @param inter The interpreter to give back
+	 */
+	public void release(JXPInterpreter inter){
+		inter.reset();
+		synchronized(this){
+			idle.push(inter);
+			notify();
+		}
+	}
+	/**
+	 * give up an interpreter obtained from acquire() which must not be used
+	 * anymore, for example because a script is still running in it. A new
+	 * interpreter will be created in its place when needed.
+	 * @param inter The interpreter to give up
+	 */
+	public synchronized void discard(JXPInterpreter inter){
+		created--;
+		notify();
+	}
+	public synchronized int getCreated(){
+		return created;
+	}
+	public int getMaxSize(){
+		return maxSize;
+	}
+}
@@ -6,6 +6,14 @@
  * <%=var %>   is replaced by the value of var in the interpreter
  * <%! script %> Just execute the script; do no text replacement
  * 
+ * Scripts can be run under a time limit. A script which exceeds it is 
+ * abandoned and an error marker is inserted instead of its output. As a 
+ * running script cannot be stopped safely, its interpreter is not used 
+ * again: the remaining scripts of the page are skipped, and the 
+ * interpreter is replaced by a new one for the next page. The output of 
+ * a script can be capped too. 
+ * The time taken by the scripts is collected per page in a JXPStatistics.
+ * 
  * copyright: GPL
  *               
  * Mark Koennecke, May 2007              
@@ -16,13 +24,99 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.apache.commons.io.IOUtils;
 
+import radieschen.wiki.ExportManifest;
+
 public class JXPProcessor {
+	/**
+	 * the number of compiled pages to keep. They are looked up by a hash 
+	 * of the page text, so that the cache does not keep the pages alive.
+	 */
+	public final static int TEMPLATECACHE = 64;
 	protected JXPInterpreter interpreter;
+	protected JXPInterpreterPool pool;
+	protected long scriptTimeout;
+	protected int maxScriptOutput;
+	protected JXPStatistics statistics;
+	protected String radiDir;
+	private Object interpreterLock;
+	private ExecutorService scriptRunner;
+	private LinkedHashMap templates;
 	
+	/**
+	 * constructor for processing with a single interpreter. Pages are 
+	 * processed one after another and scripts see what the scripts of 
+	 * earlier pages defined.
+	 * @param i The interpreter to use
+	 */
 	public JXPProcessor(JXPInterpreter i){
+		this(i, ".");
+	}
+	/**
+	 * constructor for processing with a single interpreter
+	 * @param i The interpreter to use
+	 * @param radiDir The Radieschen directory, for configuring an 
+	 * interpreter replacing i when a script in i exceeds the time limit
+	 */
+	public JXPProcessor(JXPInterpreter i, String radiDir){
 		interpreter = i;
+		pool = null;
+		this.radiDir = radiDir;
+		initTemplates();
+	}
+	/**
+	 * constructor for processing pages concurrently, each page with an 
+	 * interpreter of its own from pool
+	 * @param pool The pool to take interpreters from
+	 */
+	public JXPProcessor(JXPInterpreterPool pool){
+		interpreter = null;
+		this.pool = pool;
+		initTemplates();
+	}
+	private void initTemplates(){
+		scriptTimeout = 0;
+		maxScriptOutput = 0;
+		statistics = new JXPStatistics();
+		interpreterLock = new Object();
+		templates = new LinkedHashMap(16, .75f, true){
+			protected boolean removeEldestEntry(Map.Entry eldest){
+				return size() > TEMPLATECACHE;
+			}
+		};
+	}
+	/**
+	 * set the limits for scripts
+	 * @param timeout The time a script may run in milliseconds, 0 for no limit
+	 * @param maxOutput The maximum number of characters a script may 
+	 * produce, 0 for no limit
+	 */
+	public void setScriptLimits(long timeout, int maxOutput){
+		scriptTimeout = Math.max(0, timeout);
+		maxScriptOutput = Math.max(0, maxOutput);
+	}
+	public long getScriptTimeout(){
+		return scriptTimeout;
+	}
+	public int getMaxScriptOutput(){
+		return maxScriptOutput;
+	}
+	/**
+	 * @return The timing statistics for the scripts processed so far
+	 */
+	public JXPStatistics getStatistics(){
+		return statistics;
 	}
 	/*
 	 * process the template instructions and write the result
@@ -31,77 +125,190 @@ public class JXPProcessor {
 	 * @throws IOException when things go wrong
 	 */
 	public void process(InputStream in, OutputStream out) throws IOException {
-		int start, end, current = 0;
 		PrintWriter pw = new PrintWriter(out);
-		String script = null;
 		
 		byte b[] = IOUtils.toByteArray(in);
-		String data = new String(b);
-		
-		start = data.indexOf("<%");
-		end =   data.indexOf("%>");
-		while(start >= 0){
-			if(end < 0){
-				throw new IOException("Found start tag but no end");
-			}
-			pw.print(data.substring(current, start));
-			script = data.substring(start,end);
-			pw.print(evaluateScript(script));
-			current = end + 2; // TODO: check limits
-			start = data.indexOf("<%",end+2);
-			end   = data.indexOf("%>", start);
-		}
-		pw.print(data.substring(current,data.length()));
+		pw.print(processJXP(new String(b)));
+		pw.flush();
 	}
 	/*
-	 * process JXP tags in input
+	 * process JXP tags in input. Pages are compiled into a JXPTemplate 
+	 * once and the compiled form is reused for as long as the page text 
+	 * stays the same.
 	 * @param input The input text with JXP tags
 	 * @return The processed text 
 	 */
 	public String processJXP(String input) throws IOException{
+		return processJXP("unnamed", input);
+	}
+	/*
+	 * process JXP tags in a page
+	 * @param name The name of the page, for the statistics
+	 * @param input The input text with JXP tags
+	 * @return The processed text 
+	 */
+	public String processJXP(String name, String input) throws IOException{
+		JXPTemplate template;
 		StringBuffer data;
-		int start, end, current = 0;
-		String script = null;
+		boolean usable = true;
 		
-		data = new StringBuffer();
-		start = input.indexOf("<%");
-		end =   input.indexOf("%>");
-		while(start >= 0){
-			if(end > start){
-				data.append(input.substring(current, start));
-				script = input.substring(start+2,end);
-				data.append(evaluateScript(script));
-				current = end + 2;
-				start = input.indexOf("<%",end+2);
-				end   = input.indexOf("%>", start);
+		if(input.indexOf("<%") < 0){
+			return input;
+		}
+		template = getTemplate(input);
+		data = new StringBuffer(template.getTextLength() + 256);
+		if(pool == null){
+			synchronized(interpreterLock){
+				if(!evaluate(template, interpreter, name, data)){
+					System.out.println("JXP: a script on " + name + 
+						" exceeded the time limit, replacing the interpreter");
+					interpreter = createInterpreter();
+				}
+			}
+			return data.toString();
+		}
+		JXPInterpreter inter = pool.acquire();
+		if(inter == null){
+			/*
+			 * interrupted while waiting for an interpreter
+			 */
+			evaluate(template, null, name, data);
+			return data.toString();
+		}
+		try{
+			usable = evaluate(template, inter, name, data);
+		}finally{
+			if(usable){
+				pool.release(inter);
 			} else {
-				start = input.indexOf("<%",start+2);
-				end   = input.indexOf("%>", start);
+				System.out.println("JXP: a script on " + name + 
+					" exceeded the time limit, discarding its interpreter");
+				pool.discard(inter);
 			}
 		}
-	    data.append(input.substring(current,input.length()));
 		return data.toString();
 	}
 	/**
-	 * actually execute the script when necessary and put the data 
-	 * into the output stream
-	 * @param script The script to execute
-	 * @return  The result of the script evaluation 
+	 * evaluate a compiled template
+	 * @param template The template to evaluate
+	 * @param inter The interpreter to use, exclusively. When null, all 
+	 * scripts are skipped.
+	 * @param name The name of the page, for the statistics
+	 * @param data The buffer to append the processed text to
+	 * @return false when a script had to be abandoned and inter must not 
+	 * be used anymore 
 	 */
-	protected String evaluateScript(String script){
-		char c;
+	protected boolean evaluate(JXPTemplate template, JXPInterpreter inter, 
+			String name, StringBuffer data){
+		String result;
+		boolean timedOut, truncated;
+		long pageStart, start;
+		
+		pageStart = System.nanoTime();
+		for(int i = 0; i < template.size(); i++){
+			if(template.getKind(i) == JXPTemplate.TEXT){
+				data.append(template.getSegment(i));
+				continue;
+			}
+			if(inter == null){
+				data.append("[JXP: script skipped]");
+				continue;
+			}
+			timedOut = truncated = false;
+			start = System.nanoTime();
+			try{
+				result = evaluateScript(inter, template.getKind(i), 
+						template.getSegment(i));
+			}catch(TimeoutException eva){
+				result = "[JXP: script exceeded " + scriptTimeout + " ms]";
+				timedOut = true;
+			}
+			if(!timedOut && maxScriptOutput > 0 && result.length() > maxScriptOutput){
+				result = result.substring(0, maxScriptOutput) + 
+					"[JXP: output truncated]";
+				truncated = true;
+			}
+			statistics.recordScript(name, template.getSegment(i), 
+					System.nanoTime() - start, timedOut, truncated);
+			data.append(result);
+			if(timedOut){
+				inter = null;
+			}
+		}
+		statistics.recordPage(name, System.nanoTime() - pageStart);
+		return inter != null;
+	}
+	/**
+	 * get the compiled template for input, compiling it when it is not 
+	 * cached yet
+	 * @param input The input text with JXP tags
+	 * @return The compiled template
+	 */
+	protected JXPTemplate getTemplate(String input){
+		JXPTemplate template;
+		String key = ExportManifest.hash(input);
+		
+		synchronized(templates){
+			template = (JXPTemplate)templates.get(key);
+		}
+		if(template == null){
+			template = new JXPTemplate(input);
+			synchronized(templates){
+				templates.put(key, template);
+			}
+		}
+		return template;
+	}
+	/**
+	 * actually execute the script of a segment of a compiled template, 
+	 * within the time limit if one is set
+	 * @param inter The interpreter to use
+	 * @param kind The kind of segment as defined in JXPTemplate
+	 * @param script The variable name or the script
+	 * @return  The text to insert for the segment 
+	 * @throws TimeoutException when the script exceeds the time limit. The 
+	 * script may still be running in the background then.
+	 */
+	protected String evaluateScript(final JXPInterpreter inter, final int kind, 
+			final String script) throws TimeoutException {
+		if(scriptTimeout <= 0){
+			return runScript(inter, kind, script);
+		}
+		Future f = getScriptRunner().submit(new Callable(){
+			public Object call(){
+				return runScript(inter, kind, script);
+			}
+		});
+		try{
+			return (String)f.get(scriptTimeout, TimeUnit.MILLISECONDS);
+		}catch(TimeoutException eva){
+			f.cancel(true);
+			throw eva;
+		}catch(InterruptedException eva){
+			f.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new TimeoutException("Interrupted while waiting for script");
+		}catch(ExecutionException eva){
+			Throwable cause = eva.getCause();
+			if(cause instanceof RuntimeException){
+				throw (RuntimeException)cause;
+			}
+			throw (Error)cause;
+		}
+	}
+	private String runScript(JXPInterpreter inter, int kind, String script){
 		String result = null;
 		
-		c = script.charAt(0);
-		if(c == '='){
-			// variable execution
-			script = script.substring(1,script.length()).trim();
-			result = interpreter.getVariable(script);
-		} else if(c == '!'){
-			script = script.substring(1,script.length());
-			interpreter.evaluate(script);
-		} else {
-			result = interpreter.getEvalResult(script);
+		switch(kind){
+		case JXPTemplate.VARIABLE:
+			result = inter.getVariable(script);
+			break;
+		case JXPTemplate.EXECUTE:
+			inter.evaluate(script);
+			break;
+		default:
+			result = inter.getEvalResult(script);
+			break;
 		}
 		if(result != null){
 			return result;
@@ -109,11 +316,37 @@ public class JXPProcessor {
 			return "";
 		}
 	}
+	/**
+	 * create an interpreter replacing the single interpreter, when a 
+	 * script in it exceeded the time limit. Override in order to use 
+	 * another scripting language.
+	 * @return A new interpreter
+	 */
+	protected JXPInterpreter createInterpreter(){
+		return new BeanshellInterpreter(radiDir);
+	}
+	/**
+	 * get the threads on which scripts run when there is a time limit. 
+	 * They are daemon threads, so that a runaway script does not keep the 
+	 * application alive.
+	 */
+	private synchronized ExecutorService getScriptRunner(){
+		if(scriptRunner == null){
+			scriptRunner = Executors.newCachedThreadPool(new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "JXP script");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return scriptRunner;
+	}
 	/*
 	 * a main method, for testing
 	 */
 	static void main(String argv[]){
-		JXPInterpreter i = null;
+		JXPInterpreter i = new BeanshellInterpreter(".");
 		
 		JXPProcessor p = new JXPProcessor(i);
 		if(argv.length < 1){
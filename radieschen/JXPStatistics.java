@@ -0,0 +1,127 @@
+/**
+ * This collects timing statistics for the JXP scripts in pages: how often
+ * a page was processed, how much time its scripts took in total and at most,
+ * which of its scripts was the slowest and how many scripts ran into the
+ * time or output limits. This helps to find the scripts which dominate the
+ * time needed for showing a page.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+public class JXPStatistics {
+	/**
+	 * the maximum length of a script in the report
+	 */
+	private final static int SCRIPTLENGTH = 40;
+	private HashMap pages;
+
+	private static class PageStats {
+		String name;
+		long runs, totalNanos, maxNanos;
+		long scripts, timeouts, truncations;
+		String slowestScript;
+		long slowestNanos;
+	}
+
+	public JXPStatistics(){
+		pages = new HashMap();
+	}
+	private PageStats getPage(String page){
+		PageStats p = (PageStats)pages.get(page);
+		if(p == null){
+			p = new PageStats();
+			p.name = page;
+			pages.put(page, p);
+		}
+		return p;
+	}
+	/**
+	 * record the evaluation of a single script
+	 * @param page The name of the page the script belongs to
+	 * @param script The script
+	 * @param nanos The time the script took
+	 * @param timedOut true when the script exceeded its time limit
+	 * @param truncated true when the output of the script was truncated
+	 */
+	public synchronized void recordScript(String page, String script, long nanos,
+			boolean timedOut, boolean truncated){
+		PageStats p = getPage(page);
+		p.scripts++;
+		if(timedOut){
+			p.timeouts++;
+		}
+		if(truncated){
+			p.truncations++;
+		}
+		if(nanos > p.slowestNanos){
+			p.slowestNanos = nanos;
+			p.slowestScript = script;
+		}
+	}
+	/**
+	 * record the processing of a page
+	 * @param page The name of the page
+	 * @param nanos The time spent in the scripts of the page
+	 */
+	public synchronized void recordPage(String page, long nanos){
+		PageStats p = getPage(page);
+		p.runs++;
+		p.totalNanos += nanos;
+		if(nanos > p.maxNanos){
+			p.maxNanos = nanos;
+		}
+	}
+	/**
+	 * forget all statistics
+	 */
+	public synchronized void clear(){
+		pages.clear();
+	}
+	/**
+	 * @return A report with one line per page, the page whose scripts took
+	 * the most time in total first
+	 */
+	public synchronized String toString(){
+		StringBuffer report = new StringBuffer();
+		List sorted = new ArrayList(pages.values());
+		Collections.sort(sorted, new Comparator(){
+			public int compare(Object o1, Object o2){
+				long t1 = ((PageStats)o1).totalNanos;
+				long t2 = ((PageStats)o2).totalNanos;
+				return t1 > t2 ? -1 : (t1 < t2 ? 1 : 0);
+			}
+		});
+		report.append("page\truns\ttotal ms\tmean ms\tmax ms\tscripts\ttimeouts\ttruncated\tslowest ms\tslowest script\n");
+		for(int i = 0; i < sorted.size(); i++){
+			PageStats p = (PageStats)sorted.get(i);
+			report.append(p.name).append('\t');
+			report.append(p.runs).append('\t');
+			report.append(p.totalNanos/1000000).append('\t');
+			report.append(p.runs > 0 ? p.totalNanos/p.runs/1000000 : 0).append('\t');
+			report.append(p.maxNanos/1000000).append('\t');
+			report.append(p.scripts).append('\t');
+			report.append(p.timeouts).append('\t');
+			report.append(p.truncations).append('\t');
+			report.append(p.slowestNanos/1000000).append('\t');
+			report.append(shorten(p.slowestScript)).append('\n');
+		}
+		return report.toString();
+	}
+	private static String shorten(String script){
+		if(script == null){
+			return "";
+		}
+		script = script.trim().replace('\n', ' ').replace('\r', ' ');
+		if(script.length() > SCRIPTLENGTH){
+			script = script.substring(0, SCRIPTLENGTH) + "...";
+		}
+		return script;
+	}
+}
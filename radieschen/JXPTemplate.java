@@ -0,0 +1,119 @@
+/**
+ * This is a page with JXP tags compiled into a list of segments: literal
+ * text, variables to insert, scripts whose result is inserted and scripts
+ * which are only executed. A page is scanned for tags once when compiled;
+ * evaluating it then just walks the segment list. For the syntax, see
+ * JXPProcessor.java.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+public class JXPTemplate {
+	public final static int TEXT = 0;
+	public final static int VARIABLE = 1;
+	public final static int EVAL = 2;
+	public final static int EXECUTE = 3;
+
+	private int kinds[];
+	private String segments[];
+	private int count, textLength;
+
+	/**
+	 * compile input into a template
+	 * @param input The text with JXP tags
+	 */
+	public JXPTemplate(String input){
+		int start, end, current = 0;
+
+		kinds = new int[8];
+		segments = new String[8];
+		count = 0;
+		textLength = 0;
+		start = input.indexOf("<%");
+		end =   input.indexOf("%>");
+		while(start >= 0){
+			if(end > start){
+				addText(input.substring(current, start));
+				addScript(input.substring(start+2,end));
+				current = end + 2;
+				start = input.indexOf("<%",end+2);
+				end   = input.indexOf("%>", start);
+			} else {
+				start = input.indexOf("<%",start+2);
+				end   = input.indexOf("%>", start);
+			}
+		}
+		addText(input.substring(current,input.length()));
+	}
+	/**
+	 * check if text contains JXP tags at all
+	 * @param text The text to check
+	 * @return true when there is a start tag in text
+	 */
+	public static boolean hasTags(CharSequence text){
+		int i, length = text.length() - 1;
+		
+		for(i = 0; i < length; i++){
+			if(text.charAt(i) == '<' && text.charAt(i+1) == '%'){
+				return true;
+			}
+		}
+		return false;
+	}
+	private void addText(String txt){
+		if(txt.length() > 0){
+			add(TEXT, txt);
+			textLength += txt.length();
+		}
+	}
+	private void addScript(String script){
+		char c = script.length() > 0 ? script.charAt(0) : ' ';
+		if(c == '='){
+			add(VARIABLE, script.substring(1,script.length()).trim());
+		} else if(c == '!'){
+			add(EXECUTE, script.substring(1,script.length()));
+		} else {
+			add(EVAL, script);
+		}
+	}
+	private void add(int kind, String segment){
+		if(count >= kinds.length){
+			int newKinds[] = new int[count*2];
+			String newSegments[] = new String[count*2];
+			System.arraycopy(kinds, 0, newKinds, 0, count);
+			System.arraycopy(segments, 0, newSegments, 0, count);
+			kinds = newKinds;
+			segments = newSegments;
+		}
+		kinds[count] = kind;
+		segments[count] = segment;
+		count++;
+	}
+	/**
+	 * @return The number of segments
+	 */
+	public int size(){
+		return count;
+	}
+	/**
+	 * @param i The index of the segment
+	 * @return The kind of the segment: TEXT, VARIABLE, EVAL or EXECUTE
+	 */
+	public int getKind(int i){
+		return kinds[i];
+	}
+	/**
+	 * @param i The index of the segment
+	 * @return The text, the variable name or the script of the segment
+	 */
+	public String getSegment(int i){
+		return segments[i];
+	}
+	/**
+	 * @return The number of literal characters in the template
+	 */
+	public int getTextLength(){
+		return textLength;
+	}
+}
@@ -0,0 +1,519 @@
+/**
+ * This is a persistent graph of the links between the pages in a
+ * Radieschen database directory. For each page the wiki pages it links to
+ * and the local images it shows are kept; the links are found by running
+ * the page through the lexer and looking at the LINK and IMAGE tokens.
+ * From this the pages linking to each page, the backlinks, are maintained,
+ * so that outgoing links and backlinks can be looked up without touching
+ * a single page.
+ *
+ * Like RadiIndex, the graph lives in a file in the database directory,
+ * .radilinks, is loaded lazily on first use and checked against the
+ * modification time and size of each page, at most once every
+ * REFRESHINTERVAL. The links and images of a single page are always checked
+ * against the page. Changes made through RadiDatabase are applied directly
+ * through updatePage() and removePage().
+ *
+ * Links are taken from the page source. Links which only appear in the
+ * output of JXP scripts are not known to the graph.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.TreeSet;
+import java.util.Vector;
+
+import radieschen.wiki.CharSequenceReader;
+import radieschen.wiki.JFlexWikiLexer;
+import radieschen.wiki.WikiToken;
+
+public class LinkGraph {
+	public final static String LINKFILE = ".radilinks";
+	private final static int MAGIC = 0x524c4e4b;
+	private final static int VERSION = 1;
+	/**
+	 * the minimum time between checks of the pages in milliseconds
+	 */
+	public final static long REFRESHINTERVAL = 5000;
+	/**
+	 * flush the graph to disk after this many incremental updates
+	 */
+	private final static int FLUSHINTERVAL = 50;
+
+	protected String projectDir;
+	private HashMap pages;     // page name -> PageEntry
+	private HashMap backlinks; // page name -> TreeSet of linking pages
+	private boolean loaded;
+	private long lastRefresh;
+	private int pendingUpdates;
+
+	/**
+	 * bookkeeping for a single page
+	 */
+	private static class PageEntry {
+		String name;
+		long lastModified, length;
+		TreeSet links, images;
+
+		PageEntry(String name){
+			this.name = name;
+			links = new TreeSet();
+			images = new TreeSet();
+		}
+	}
+
+	/**
+	 * constructor
+	 * @param projectDir The database directory
+	 */
+	public LinkGraph(String projectDir){
+		this.projectDir = projectDir;
+		clear();
+		loaded = false;
+	}
+	/**
+	 * @param page The page file name
+	 * @return A sorted Vector of the pages page links to
+	 */
+	public synchronized Vector getLinks(String page){
+		PageEntry pe;
+
+		check();
+		checkPage(page);
+		pe = (PageEntry)pages.get(page);
+		return pe != null ? new Vector(pe.links) : new Vector();
+	}
+	/**
+	 * @param page The page file name
+	 * @return A sorted Vector of the local images page shows
+	 */
+	public synchronized Vector getImages(String page){
+		PageEntry pe;
+
+		check();
+		checkPage(page);
+		pe = (PageEntry)pages.get(page);
+		return pe != null ? new Vector(pe.images) : new Vector();
+	}
+	/**
+	 * @param page The page file name
+	 * @return A sorted Vector of the pages which link to page
+	 */
+	public synchronized Vector getBacklinks(String page){
+		TreeSet from;
+
+		check();
+		from = (TreeSet)backlinks.get(page);
+		return from != null ? new Vector(from) : new Vector();
+	}
+	/**
+	 * find the pages no other page links to
+	 * @return A sorted Vector of the orphan pages
+	 */
+	public synchronized Vector getOrphans(){
+		TreeSet result = new TreeSet();
+		TreeSet from;
+		String name;
+
+		check();
+		Iterator it = pages.keySet().iterator();
+		while(it.hasNext()){
+			name = (String)it.next();
+			from = (TreeSet)backlinks.get(name);
+			if(from == null || (from.size() == 1 && from.contains(name))){
+				result.add(name);
+			}
+		}
+		return new Vector(result);
+	}
+	/**
+	 * find the pages which are linked to but do not exist. The pages
+	 * linking to them are found with getBacklinks().
+	 * @return A sorted Vector of the missing pages
+	 */
+	public synchronized Vector getDanglingLinks(){
+		TreeSet result = new TreeSet();
+		String name;
+
+		check();
+		Iterator it = backlinks.keySet().iterator();
+		while(it.hasNext()){
+			name = (String)it.next();
+			if(!pages.containsKey(name)){
+				result.add(name);
+			}
+		}
+		return new Vector(result);
+	}
+	/**
+	 * find all pages reachable from start by following links
+	 * @param start The page to start from
+	 * @return The existing pages reachable from start, start first
+	 */
+	public synchronized Vector getReachable(String start){
+		LinkedHashSet seen = new LinkedHashSet();
+		Vector result = new Vector();
+		Vector todo = new Vector();
+		PageEntry pe;
+		String name;
+
+		check();
+		start = pageName(start);
+		todo.add(start);
+		seen.add(start);
+		while(todo.size() > 0){
+			name = (String)todo.remove(todo.size() - 1);
+			pe = (PageEntry)pages.get(name);
+			if(pe == null){
+				continue;
+			}
+			result.add(name);
+			Iterator it = pe.links.iterator();
+			while(it.hasNext()){
+				name = (String)it.next();
+				if(seen.add(name)){
+					todo.add(name);
+				}
+			}
+		}
+		return result;
+	}
+	/**
+	 * update the graph for a page which has been saved
+	 * @param name The file name of the page
+	 * @param content The new content of the page
+	 */
+	public synchronized void updatePage(String name, CharSequence content){
+		if(!loaded){
+			// will be picked up by the modification time check on load
+			return;
+		}
+		enterPage(name, content, new File(projectDir, name));
+		noteUpdate();
+	}
+	/**
+	 * remove a page from the graph
+	 * @param name The file name of the page
+	 */
+	public synchronized void removePage(String name){
+		if(!loaded){
+			return;
+		}
+		dropPage(name);
+		noteUpdate();
+	}
+	/**
+	 * throw away the graph and build it from scratch
+	 * @throws IOException when the graph cannot be written
+	 */
+	public synchronized void rebuild() throws IOException{
+		clear();
+		loaded = true;
+		refresh();
+		flush();
+	}
+	/**
+	 * write the graph to disk if it has been changed
+	 * @throws IOException when things go wrong
+	 */
+	public synchronized void flush() throws IOException {
+		if(!loaded || pendingUpdates == 0){
+			return;
+		}
+		File tmp = new File(projectDir, LINKFILE + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+			writeGraph(out);
+		} finally {
+			out.close();
+		}
+		PageWriter.replace(tmp, new File(projectDir, LINKFILE));
+		pendingUpdates = 0;
+	}
+	/**
+	 * find the wiki links and local images in a page
+	 * @param content The page source
+	 * @param links A collection to which the names of the linked pages are
+	 * added
+	 * @param images A collection to which the names of the images are added
+	 */
+	public static void scanLinks(CharSequence content, Collection links,
+			Collection images){
+		JFlexWikiLexer lexer = new JFlexWikiLexer(new CharSequenceReader(content), true);
+		WikiToken tok;
+		String txt, url;
+		int idx;
+
+		lexer.setTextSpans(true);
+		try{
+			while((tok = lexer.nextToken()) != null){
+				if(tok.getType() == WikiToken.LINK){
+					txt = tok.getText().trim();
+					txt = txt.substring(1, txt.length() - 1);
+					idx = txt.indexOf('|');
+					url = (idx > 0 ? txt.substring(0, idx) : txt).trim();
+					if(url.startsWith("#") || isExternal(url)){
+						continue;
+					}
+					idx = url.indexOf('#');
+					if(idx > 0){
+						url = url.substring(0, idx);
+					}
+					links.add(pageName(url));
+				} else if(tok.getType() == WikiToken.IMAGE){
+					txt = tok.getText();
+					url = txt.substring(2, txt.length() - 2);
+					if(!isExternal(url)){
+						images.add(url);
+					}
+				}
+			}
+		}catch(IOException eva){}
+	}
+	private static boolean isExternal(String url){
+		return url.startsWith("http") || url.startsWith("ftp") || url.startsWith("file");
+	}
+	private static String pageName(String name){
+		if(name.endsWith(".radi")){
+			return name;
+		}
+		return name + ".radi";
+	}
+	/**
+	 * make sure the graph is loaded and not older than REFRESHINTERVAL
+	 */
+	private void check(){
+		ensureLoaded();
+		if(System.currentTimeMillis() - lastRefresh > REFRESHINTERVAL){
+			refresh();
+		}
+	}
+	/**
+	 * make sure the entry of a single page is up to date
+	 * @param name The page file name
+	 */
+	private void checkPage(String name){
+		File f = new File(projectDir, name);
+		PageEntry pe = (PageEntry)pages.get(name);
+
+		if(!f.exists()){
+			if(pe != null){
+				dropPage(name);
+				pendingUpdates++;
+			}
+			return;
+		}
+		if(pe != null && pe.lastModified == f.lastModified() 
+				&& pe.length == f.length()){
+			return;
+		}
+		try {
+			enterPage(name, PageLoader.load(f), f);
+			pendingUpdates++;
+		}catch(IOException eva){}
+	}
+	/**
+	 * make sure that the graph has been loaded or built
+	 */
+	private void ensureLoaded(){
+		if(loaded){
+			return;
+		}
+		try {
+			File f = new File(projectDir, LINKFILE);
+			if(f.exists()){
+				DataInputStream in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(f)));
+				try {
+					readGraph(in);
+				} finally {
+					in.close();
+				}
+			}
+		}catch(IOException eva){
+			System.out.println("Rebuilding damaged link graph: " + eva.getMessage());
+			clear();
+		}
+		loaded = true;
+	}
+	/**
+	 * bring the graph in line with the directory: scan new and modified
+	 * pages, drop deleted ones.
+	 */
+	private void refresh(){
+		HashSet present = new HashSet();
+		PageEntry pe;
+		int i;
+
+		lastRefresh = System.currentTimeMillis();
+		String radiNames[] = new File(projectDir).list();
+		if(radiNames == null){
+			return;
+		}
+		for(i = 0; i < radiNames.length; i++){
+			if(!radiNames[i].endsWith(".radi")){
+				continue;
+			}
+			present.add(radiNames[i]);
+			File f = new File(projectDir, radiNames[i]);
+			pe = (PageEntry)pages.get(radiNames[i]);
+			if(pe != null && pe.lastModified == f.lastModified()
+					&& pe.length == f.length()){
+				continue;
+			}
+			try {
+				enterPage(radiNames[i], PageLoader.load(f), f);
+				pendingUpdates++;
+			}catch(IOException eva){}
+		}
+		Iterator it = new Vector(pages.keySet()).iterator();
+		while(it.hasNext()){
+			String name = (String)it.next();
+			if(!present.contains(name)){
+				dropPage(name);
+				pendingUpdates++;
+			}
+		}
+		if(pendingUpdates > 0){
+			try {
+				flush();
+			}catch(IOException eva){
+				System.out.println("Failed to write link graph: " + eva.getMessage());
+			}
+		}
+	}
+	/**
+	 * (re)enter a single page
+	 * @param name The page file name
+	 * @param content The page text
+	 * @param f The page file, for the modification time check
+	 */
+	private void enterPage(String name, CharSequence content, File f){
+		PageEntry pe;
+
+		dropPage(name);
+		pe = new PageEntry(name);
+		pe.lastModified = f.lastModified();
+		pe.length = f.length();
+		scanLinks(content, pe.links, pe.images);
+		addPage(pe);
+	}
+	private void addPage(PageEntry pe){
+		TreeSet from;
+
+		pages.put(pe.name, pe);
+		Iterator it = pe.links.iterator();
+		while(it.hasNext()){
+			String target = (String)it.next();
+			from = (TreeSet)backlinks.get(target);
+			if(from == null){
+				from = new TreeSet();
+				backlinks.put(target, from);
+			}
+			from.add(pe.name);
+		}
+	}
+	/**
+	 * remove all links of a page
+	 * @param name The page file name
+	 */
+	private void dropPage(String name){
+		PageEntry pe = (PageEntry)pages.remove(name);
+		TreeSet from;
+
+		if(pe == null){
+			return;
+		}
+		Iterator it = pe.links.iterator();
+		while(it.hasNext()){
+			String target = (String)it.next();
+			from = (TreeSet)backlinks.get(target);
+			if(from != null){
+				from.remove(name);
+				if(from.isEmpty()){
+					backlinks.remove(target);
+				}
+			}
+		}
+	}
+	private void noteUpdate(){
+		pendingUpdates++;
+		if(pendingUpdates >= FLUSHINTERVAL){
+			try {
+				flush();
+			}catch(IOException eva){
+				System.out.println("Failed to write link graph: " + eva.getMessage());
+			}
+		}
+	}
+	private void clear(){
+		pages = new HashMap();
+		backlinks = new HashMap();
+		pendingUpdates = 0;
+		lastRefresh = 0;
+	}
+	/**
+	 * write the graph
+	 * @param out The stream to write to
+	 * @throws IOException when things go wrong
+	 */
+	private void writeGraph(DataOutputStream out) throws IOException{
+		PageEntry pe;
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(pages.size());
+		Iterator it = pages.values().iterator();
+		while(it.hasNext()){
+			pe = (PageEntry)it.next();
+			out.writeUTF(pe.name);
+			out.writeLong(pe.lastModified);
+			out.writeLong(pe.length);
+			writeSet(out, pe.links);
+			writeSet(out, pe.images);
+		}
+	}
+	/**
+	 * read the graph
+	 * @param in The stream to read from
+	 * @throws IOException when the file is damaged or outdated
+	 */
+	private void readGraph(DataInputStream in) throws IOException{
+		int i, count;
+		PageEntry pe;
+
+		if(in.readInt() != MAGIC || in.readInt() != VERSION){
+			throw new IOException("Bad link graph file format");
+		}
+		count = in.readInt();
+		for(i = 0; i < count; i++){
+			pe = new PageEntry(in.readUTF());
+			pe.lastModified = in.readLong();
+			pe.length = in.readLong();
+			readSet(in, pe.links);
+			readSet(in, pe.images);
+			addPage(pe);
+		}
+	}
+	private static void writeSet(DataOutputStream out, TreeSet set) throws IOException{
+		out.writeInt(set.size());
+		Iterator it = set.iterator();
+		while(it.hasNext()){
+			out.writeUTF((String)it.next());
+		}
+	}
+	private static void readSet(DataInputStream in, TreeSet set) throws IOException{
+		int i, count = in.readInt();
+		for(i = 0; i < count; i++){
+			set.add(in.readUTF());
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * This is an in memory catalog of the pages in a Radieschen directory,
+ * kept sorted by name. Listing the pages or checking for a page thus does
+ * not touch the file system.
+ *
+ * Pages created or deleted by RadiDatabase are entered directly. Changes
+ * made by others, such as an external editor, are picked up through a
+ * WatchService on the directory. As a safety net the directory is scanned
+ * again every RESCANINTERVAL; where no WatchService is available, this is
+ * done when the catalog is used and the last scan is older than that.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+public class PageCatalog {
+	/**
+	 * the time between full scans of the directory in milliseconds
+	 */
+	public final static long RESCANINTERVAL = 60000;
+	private static long versions = 0;
+
+	private File dir;
+	private TreeSet pages;
+	private Vector list;
+	private long version, lastScan;
+	private WatchService watcher;
+
+	/**
+	 * constructor
+	 * @param dir The Radieschen directory
+	 */
+	public PageCatalog(String dir){
+		this.dir = new File(dir);
+		pages = new TreeSet();
+		rescan();
+		startWatching();
+	}
+	/**
+	 * check if a file name denotes a page
+	 * @param name The file name
+	 * @return true when this is a page
+	 */
+	public static boolean isPage(String name){
+		return name.indexOf(".radi") > 0;
+	}
+	/**
+	 * get the sorted list of pages. The list is shared and must not be
+	 * modified: it is replaced whenever the catalog changes.
+	 * @return A Vector with the page file names
+	 */
+	public synchronized Vector getPages(){
+		checkRescan();
+		if(list == null){
+			list = new Vector(pages);
+		}
+		return list;
+	}
+	/**
+	 * check if a page exists
+	 * @param name The page file name
+	 * @return true when the page is in the catalog
+	 */
+	public synchronized boolean contains(String name){
+		checkRescan();
+		return pages.contains(name);
+	}
+	/**
+	 * @return A number which changes whenever the list of pages changes
+	 */
+	public synchronized long getVersion(){
+		checkRescan();
+		return version;
+	}
+	/**
+	 * enter a page which has been created
+	 * @param name The page file name
+	 */
+	public synchronized void add(String name){
+		if(isPage(name) && pages.add(name)){
+			changed();
+		}
+	}
+	/**
+	 * remove a page which has been deleted
+	 * @param name The page file name
+	 */
+	public synchronized void remove(String name){
+		if(pages.remove(name)){
+			changed();
+		}
+	}
+	/**
+	 * read the directory again
+	 */
+	public synchronized void rescan(){
+		TreeSet found = new TreeSet();
+		String names[] = dir.list();
+
+		if(names != null){
+			for(int i = 0; i < names.length; i++){
+				if(isPage(names[i])){
+					found.add(names[i]);
+				}
+			}
+		}
+		lastScan = System.currentTimeMillis();
+		if(!found.equals(pages)){
+			pages = found;
+			changed();
+		}
+	}
+	/**
+	 * stop watching the directory
+	 */
+	public void close(){
+		WatchService w;
+		synchronized(this){
+			w = watcher;
+			watcher = null;
+		}
+		if(w != null){
+			try{
+				w.close();
+			}catch(IOException eva){}
+		}
+	}
+	private void changed(){
+		list = null;
+		synchronized(PageCatalog.class){
+			version = ++versions;
+		}
+	}
+	private void checkRescan(){
+		if(watcher == null && System.currentTimeMillis() - lastScan > RESCANINTERVAL){
+			rescan();
+		}
+	}
+	private void startWatching(){
+		try{
+			watcher = FileSystems.getDefault().newWatchService();
+			dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.OVERFLOW);
+		}catch(Exception eva){
+			System.out.println("Cannot watch " + dir + ", scanning instead: " +
+				eva.getMessage());
+			close();
+			return;
+		}
+		final WatchService w = watcher;
+		Thread watchThread = new Thread("Page catalog " + dir.getName()){
+			public void run(){
+				watch(w);
+			}
+		};
+		watchThread.setDaemon(true);
+		watchThread.start();
+	}
+	private void watch(WatchService w){
+		WatchKey key;
+
+		try{
+			while(true){
+				key = w.poll(RESCANINTERVAL, TimeUnit.MILLISECONDS);
+				if(key == null){
+					rescan();
+					continue;
+				}
+				Iterator it = key.pollEvents().iterator();
+				while(it.hasNext()){
+					WatchEvent ev = (WatchEvent)it.next();
+					if(ev.kind() == StandardWatchEventKinds.OVERFLOW){
+						rescan();
+						continue;
+					}
+					String name = ((Path)ev.context()).getFileName().toString();
+					if(ev.kind() == StandardWatchEventKinds.ENTRY_CREATE){
+						if(new File(dir, name).exists()){
+							add(name);
+						}
+					} else {
+						remove(name);
+					}
+				}
+				if(!key.reset()){
+					/*
+					 * the directory is gone
+					 */
+					rescan();
+					synchronized(this){
+						if(watcher == w){
+							watcher = null;
+						}
+					}
+					w.close();
+					return;
+				}
+			}
+		}catch(ClosedWatchServiceException eva){
+		}catch(InterruptedException eva){
+		}catch(IOException eva){}
+	}
+}
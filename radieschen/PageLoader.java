@@ -0,0 +1,126 @@
+/**
+ * This loads pages from the database directory. A page file is read in one
+ * go and decoded from UTF-8 straight into a CharBuffer which can be handed
+ * on as a CharSequence without copying it into a String first. Line ends
+ * are normalized to '\n' in place, and the last line is always terminated,
+ * just as reading the page line by line would do.
+ *
+ * Older pages may have been written in the platform encoding. When a page
+ * is not valid UTF-8 it is decoded in the platform encoding instead, and 
+ * when that fails too, in ISO-8859-1.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+public class PageLoader {
+	/**
+	 * the encoding of page files
+	 */
+	public final static String CHARSET = "UTF-8";
+
+	/**
+	 * load a page
+	 * @param f The page file
+	 * @return The page text
+	 * @throws IOException when the file cannot be read
+	 */
+	public static CharBuffer load(File f) throws IOException {
+		return normalize(decode(readBytes(f)));
+	}
+	/**
+	 * load a page into a String
+	 * @param f The page file
+	 * @return The page text
+	 * @throws IOException when the file cannot be read
+	 */
+	public static String loadString(File f) throws IOException {
+		return load(f).toString();
+	}
+	/*
+	 * pages are not memory mapped: a mapping stays until garbage 
+	 * collection and, on Windows, keeps PageWriter from replacing the page
+	 */
+	private static ByteBuffer readBytes(File f) throws IOException {
+		FileInputStream fin = new FileInputStream(f);
+		try{
+			FileChannel ch = fin.getChannel();
+			long size = ch.size();
+			if(size > Integer.MAX_VALUE){
+				throw new IOException(f + " is too large");
+			}
+			ByteBuffer bytes = ByteBuffer.allocate((int)size);
+			while(bytes.hasRemaining()){
+				if(ch.read(bytes) < 0){
+					break;
+				}
+			}
+			bytes.flip();
+			return bytes;
+		}finally{
+			fin.close();
+		}
+	}
+	private static CharBuffer decode(ByteBuffer bytes) throws IOException {
+		try{
+			return decode(bytes, Charset.forName(CHARSET));
+		}catch(CharacterCodingException eva){}
+		try{
+			bytes.rewind();
+			return decode(bytes, Charset.defaultCharset());
+		}catch(CharacterCodingException eva){}
+		bytes.rewind();
+		return decode(bytes, Charset.forName("ISO-8859-1"));
+	}
+	private static CharBuffer decode(ByteBuffer bytes, Charset charset) 
+			throws CharacterCodingException {
+		return charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPORT)
+			.onUnmappableCharacter(CodingErrorAction.REPORT)
+			.decode(bytes);
+	}
+	/**
+	 * turn \r\n and \r into \n, drop a byte order mark and terminate the
+	 * last line. This works in the array of the buffer.
+	 */
+	private static CharBuffer normalize(CharBuffer chars){
+		char data[] = chars.array();
+		int in = chars.arrayOffset() + chars.position();
+		int end = chars.arrayOffset() + chars.limit();
+		int out = 0;
+		char c;
+
+		if(in < end && data[in] == '\uFEFF'){
+			in++;
+		}
+		while(in < end){
+			c = data[in++];
+			if(c == '\r'){
+				if(in < end && data[in] == '\n'){
+					in++;
+				}
+				c = '\n';
+			}
+			data[out++] = c;
+		}
+		if(out > 0 && data[out-1] != '\n'){
+			if(out == data.length){
+				char tmp[] = new char[out + 1];
+				System.arraycopy(data, 0, tmp, 0, out);
+				data = tmp;
+			}
+			data[out++] = '\n';
+		}
+		return CharBuffer.wrap(data, 0, out);
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * This writes pages safely. A page is written to a temporary file in the
+ * same directory, forced to disk and then renamed over the old page in one
+ * atomic step. Thus a crash while saving leaves either the old or the new
+ * page, never a mixture.
+ *
+ * Forcing each page to disk is slow when many pages are saved in a row,
+ * as on imports. Between beginBatch() and endBatch() pages are still
+ * replaced atomically, but forcing them to disk is deferred: endBatch()
+ * forces all pages written in the batch and their directories in one go.
+ * Long batches are committed every GROUPSIZE pages.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+public class PageWriter {
+	/**
+	 * the maximum number of pages whose forcing to disk is deferred
+	 */
+	public final static int GROUPSIZE = 64;
+	private int batchDepth;
+	private LinkedHashSet pending;
+
+	public PageWriter(){
+		batchDepth = 0;
+		pending = new LinkedHashSet();
+	}
+	/**
+	 * write a page
+	 * @param target The page file
+	 * @param content The new content of the page
+	 * @throws IOException when things go wrong. The old page is still
+	 * intact then.
+	 */
+	public synchronized void write(File target, String content) throws IOException {
+		File dir = target.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(".save", ".tmp", dir);
+		boolean done = false;
+
+		try{
+			FileOutputStream out = new FileOutputStream(tmp);
+			try{
+				out.write(content.getBytes(PageLoader.CHARSET));
+				if(batchDepth == 0){
+					out.getFD().sync();
+				}
+			}finally{
+				out.close();
+			}
+			replace(tmp, target);
+			done = true;
+		}finally{
+			if(!done){
+				tmp.delete();
+			}
+		}
+		if(batchDepth == 0){
+			syncDirectory(dir);
+		} else {
+			pending.add(target.getAbsoluteFile());
+			if(pending.size() >= GROUPSIZE){
+				commit();
+			}
+		}
+	}
+	/**
+	 * start deferring forcing pages to disk. Batches may be nested.
+	 */
+	public synchronized void beginBatch(){
+		batchDepth++;
+	}
+	/**
+	 * end a batch. When the outermost batch ends, all pages written
+	 * during the batch are forced to disk.
+	 * @throws IOException when forcing a page to disk fails
+	 */
+	public synchronized void endBatch() throws IOException {
+		if(batchDepth > 0){
+			batchDepth--;
+		}
+		if(batchDepth == 0){
+			commit();
+		}
+	}
+	/**
+	 * force all pages written since the last commit to disk
+	 * @throws IOException when things go wrong
+	 */
+	public synchronized void commit() throws IOException {
+		LinkedHashSet dirs = new LinkedHashSet();
+		Iterator it = pending.iterator();
+		File f;
+
+		try{
+			while(it.hasNext()){
+				f = (File)it.next();
+				if(f.exists()){
+					RandomAccessFile raf = new RandomAccessFile(f, "rw");
+					try{
+						raf.getFD().sync();
+					}finally{
+						raf.close();
+					}
+				}
+				dirs.add(f.getParentFile());
+			}
+		}finally{
+			pending.clear();
+		}
+		it = dirs.iterator();
+		while(it.hasNext()){
+			syncDirectory((File)it.next());
+		}
+	}
+	/**
+	 * rename tmp to target, replacing target atomically where the file
+	 * system supports this
+	 * @param tmp The file to rename
+	 * @param target The file to replace
+	 * @throws IOException when the rename fails
+	 */
+	public static void replace(File tmp, File target) throws IOException {
+		try{
+			Files.move(tmp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}catch(AtomicMoveNotSupportedException eva){
+			Files.move(tmp.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	/**
+	 * make a rename in dir durable. Not all platforms allow this, thus
+	 * failures are ignored.
+	 */
+	private static void syncDirectory(File dir){
+		try{
+			FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+			try{
+				ch.force(true);
+			}finally{
+				ch.close();
+			}
+		}catch(IOException eva){}
+	}
+}
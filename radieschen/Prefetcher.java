@@ -0,0 +1,138 @@
+/*
+ * This renders the pages most likely to be viewed next into the render
+ * cache, while the user is reading the current page. Those are the pages
+ * the current page links to: first those visited recently, as the user is
+ * likely to go there again, then the others in the order in which they
+ * appear on the page. At most PREFETCHPAGES pages are rendered for a page.
+ *
+ * Prefetching runs on a single background thread of low priority with its
+ * own renderer, so that it does not hold up the page being displayed. When
+ * the user moves on, pages not yet rendered for the previous page are
+ * dropped.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import radieschen.wiki.HtmlWikiRenderer;
+
+public class Prefetcher {
+	/**
+	 * the maximum number of pages prefetched for a page
+	 */
+	public final static int PREFETCHPAGES = 5;
+
+	private RadiDatabase db;
+	private HtmlWikiRenderer renderer;
+	private ExecutorService pool;
+	private int generation;
+
+	/**
+	 * constructor
+	 * @param db The database to prefetch from
+	 * @throws IOException when the renderer cannot be created
+	 */
+	public Prefetcher(RadiDatabase db) throws IOException{
+		this.db = db;
+		renderer = new HtmlWikiRenderer();
+		generation = 0;
+		pool = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "Prefetcher");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+	/**
+	 * start prefetching the pages linked from a page. Prefetching for the
+	 * previous page is cancelled.
+	 * @param page The page file name
+	 * @param history The URLs visited before, oldest first, as radi://page
+	 * for pages
+	 */
+	public synchronized void prefetch(final String page, Collection history){
+		final int current = ++generation;
+		final Vector visited = new Vector(history);
+
+		pool.execute(new Runnable(){
+			public void run(){
+				prefetchLinks(current, page, visited);
+			}
+		});
+	}
+	/**
+	 * cancel prefetching
+	 */
+	public synchronized void cancel(){
+		generation++;
+	}
+	private synchronized boolean isCurrent(int gen){
+		return gen == generation;
+	}
+	private void prefetchLinks(int gen, String page, Vector history){
+		Vector candidates;
+		int i;
+
+		if(!isCurrent(gen)){
+			return;
+		}
+		candidates = rankLinks(page, history);
+		for(i = 0; i < candidates.size() && isCurrent(gen); i++){
+			db.prerenderWikiHtml((String)candidates.get(i), renderer);
+		}
+	}
+	/**
+	 * rank the pages linked from a page by how likely they are visited next
+	 * @param page The page file name
+	 * @param history The URLs visited before, oldest first
+	 * @return The names of at most PREFETCHPAGES existing pages, most
+	 * likely first
+	 */
+	Vector rankLinks(String page, Vector history){
+		LinkedHashSet links = new LinkedHashSet();
+		Vector ranked = new Vector();
+		String url, name;
+		Iterator it;
+		int i;
+
+		try{
+			LinkGraph.scanLinks(PageLoader.load(new File(db.getWikiFilename(page))),
+					links, new Vector());
+		}catch(IOException eva){
+			return ranked;
+		}
+		links.remove(page);
+		for(i = history.size() - 1; i >= 0; i--){
+			url = (String)history.get(i);
+			if(url != null && url.startsWith("radi://")){
+				name = url.substring(7);
+				if(links.remove(name)){
+					ranked.add(name);
+				}
+			}
+		}
+		ranked.addAll(links);
+		it = ranked.iterator();
+		while(it.hasNext()){
+			if(!db.radiExists((String)it.next())){
+				it.remove();
+			}
+		}
+		if(ranked.size() > PREFETCHPAGES){
+			ranked.setSize(PREFETCHPAGES);
+		}
+		return ranked;
+	}
+}
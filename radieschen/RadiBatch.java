@@ -0,0 +1,247 @@
+/*
+ * This is a command line driver for Radieschen, for rendering, exporting
+ * and searching pages without a display, for instance from cron. It only
+ * uses RadiDatabase and thus never loads any AWT or Swing classes.
+ *
+ * The Radieschen directory and the tuning settings are taken from the
+ * property file of the GUI, unless given on the command line.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Vector;
+
+public class RadiBatch {
+	private final static String USAGE[] = {
+		"Usage: java radieschen.RadiBatch [options] command [arguments]",
+		"Options:",
+		"  -d dir       the Radieschen directory",
+		"  -t threads   the number of threads for HTML exports",
+		"  -f           export all pages, not only those which changed",
+		"  -v           print each page as it is processed",
+		"Commands:",
+		"  render page [file]        render a page as HTML to file or stdout",
+		"  export format targetdir [page] [cssfile]",
+		"                            export page, default Start.radi, and all",
+		"                            pages linked to it. format is one of html,",
+		"                            xhtml, markdown, s5, radi, latex,",
+		"                            latexbook, prosper or beamer",
+		"  search pattern            list the pages matching pattern",
+		"  reindex                   rebuild the search index and link graph",
+	};
+	private final static String FORMATS[] = {"html", "xhtml", "markdown",
+		"s5", "radi", "latex", "latexbook", "prosper", "beamer"};
+	private Properties radiProperty;
+	private String radiDir;
+	private int threads;
+	private boolean full, verbose;
+
+	public RadiBatch(){
+		radiProperty = new Properties();
+		threads = 0;
+		full = false;
+		verbose = false;
+		loadProperties();
+		radiDir = radiProperty.getProperty("radidir");
+	}
+	/**
+	 * read the property file of the GUI, if there is one
+	 */
+	private void loadProperties(){
+		String radiFile = System.getProperty("user.home");
+		if(radiFile == null){
+			radiFile = "C:\\";
+		}
+		radiFile += File.separatorChar + ".radieschen";
+		try{
+			FileInputStream in = new FileInputStream(radiFile);
+			try{
+				radiProperty.load(in);
+			}finally{
+				in.close();
+			}
+		}catch(IOException eva){}
+	}
+	/**
+	 * open the database and apply the settings
+	 * @return The database
+	 * @throws IOException when the database cannot be opened
+	 */
+	private RadiDatabase openDatabase() throws IOException{
+		RadiDatabase db;
+
+		if(radiDir != null){
+			db = new RadiDatabase(radiDir);
+		} else {
+			db = new RadiDatabase();
+		}
+		try{
+			db.setScriptLimits(Long.parseLong(
+					radiProperty.getProperty("scripttimeout").trim()),
+					Integer.parseInt(radiProperty.getProperty("scriptoutput").trim()));
+		}catch(Exception eva){}
+		if(threads == 0){
+			try{
+				threads = Integer.parseInt(
+						radiProperty.getProperty("exportthreads").trim());
+			}catch(Exception eva){}
+		}
+		if(threads > 0){
+			db.setExportThreads(threads);
+		}
+		db.setIncrementalExport(!full);
+		if(verbose){
+			db.setProgress(System.err);
+		}
+		return db;
+	}
+	/**
+	 * process the command line
+	 * @param args The command line arguments
+	 * @return The exit code: 0 on success, 1 on errors, 2 on bad usage
+	 */
+	public int run(String args[]){
+		int i;
+		String command;
+		RadiDatabase db;
+		long start = System.currentTimeMillis();
+
+		for(i = 0; i < args.length && args[i].startsWith("-"); i++){
+			if(args[i].equals("-d") && i + 1 < args.length){
+				radiDir = args[++i];
+			} else if(args[i].equals("-t") && i + 1 < args.length){
+				try{
+					threads = Integer.parseInt(args[++i]);
+				}catch(NumberFormatException eva){
+					return usage("Bad number of threads: " + args[i]);
+				}
+			} else if(args[i].equals("-f")){
+				full = true;
+			} else if(args[i].equals("-v")){
+				verbose = true;
+			} else {
+				return usage("Unknown option: " + args[i]);
+			}
+		}
+		if(i >= args.length){
+			return usage(null);
+		}
+		command = args[i];
+		String argv[] = new String[args.length - i - 1];
+		System.arraycopy(args, i + 1, argv, 0, argv.length);
+
+		try{
+			db = openDatabase();
+		}catch(IOException eva){
+			System.err.println("Cannot open " + radiDir + ": " + eva.getMessage());
+			return 1;
+		}
+		try{
+			if(command.equals("render") && (argv.length == 1 || argv.length == 2)){
+				render(db, argv);
+			} else if(command.equals("export") && argv.length >= 2 && argv.length <= 4){
+				if(!export(db, argv)){
+					return usage("Unknown export format: " + argv[0]);
+				}
+			} else if(command.equals("search") && argv.length == 1){
+				Vector hits = db.findPages(argv[0]);
+				for(i = 0; i < hits.size(); i++){
+					System.out.println(hits.get(i));
+				}
+			} else if(command.equals("reindex") && argv.length == 0){
+				db.rebuildIndex();
+			} else {
+				return usage("Bad command: " + command);
+			}
+		}catch(Exception eva){
+			System.err.println(command + " failed: " + eva.getMessage());
+			return 1;
+		}finally{
+			db.flushIndex();
+		}
+		if(verbose){
+			System.err.println(command + " took " +
+					(System.currentTimeMillis() - start) + " ms");
+		}
+		return 0;
+	}
+	/**
+	 * render a page as HTML
+	 * @param db The database
+	 * @param argv The page and optionally the file to write to
+	 * @throws IOException when the file cannot be written
+	 */
+	private void render(RadiDatabase db, String argv[]) throws IOException{
+		String html = db.getWikiHtml(argv[0]);
+		if(argv.length > 1){
+			new PageWriter().write(new File(argv[1]), html);
+		} else {
+			System.out.print(html);
+			System.out.flush();
+		}
+	}
+	/**
+	 * export pages
+	 * @param db The database
+	 * @param argv The format, the target directory and optionally the
+	 * start page and the style sheet
+	 * @return false when the format is unknown
+	 * @throws IOException when the export fails
+	 */
+	private boolean export(RadiDatabase db, String argv[]) throws IOException{
+		String format = argv[0];
+		String targetDir = new File(argv[1]).getAbsolutePath();
+		String page = argv.length > 2 ? argv[2] : "Start.radi";
+		String cssFile = argv.length > 3 ? argv[3] : "radi.css";
+
+		if(!Arrays.asList(FORMATS).contains(format)){
+			return false;
+		}
+		File d = new File(targetDir);
+		if(!d.exists() && !d.mkdirs()){
+			throw new IOException("Cannot create " + targetDir);
+		}
+		if(format.equals("html")){
+			db.exportHtml(targetDir, page, cssFile);
+		} else if(format.equals("xhtml")){
+			db.exportXHtml(targetDir, page, cssFile);
+		} else if(format.equals("markdown")){
+			db.exportMarkdown(targetDir, page, cssFile);
+		} else if(format.equals("s5")){
+			db.exportS5(targetDir, page, cssFile);
+		} else if(format.equals("radi")){
+			db.exportRadi(targetDir, page, cssFile);
+		} else if(format.equals("latex")){
+			db.exportLatex(targetDir, page, RadiDatabase.ARTICLE);
+		} else if(format.equals("latexbook")){
+			db.exportLatex(targetDir, page, RadiDatabase.BOOK);
+		} else if(format.equals("prosper")){
+			db.exportLatex(targetDir, page, RadiDatabase.PROSPER);
+		} else {
+			db.exportLatex(targetDir, page, RadiDatabase.BEAMER);
+		}
+		return true;
+	}
+	private int usage(String message){
+		if(message != null){
+			System.err.println(message);
+		}
+		for(int i = 0; i < USAGE.length; i++){
+			System.err.println(USAGE[i]);
+		}
+		return 2;
+	}
+	/**
+	 * @param args The command line
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		System.exit(new RadiBatch().run(args));
+	}
+}
@@ -12,23 +12,37 @@ package radieschen;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.CharBuffer;
 import java.util.Vector;
 import radieschen.wiki.*;
-import java.util.Arrays;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import java.util.regex.*;
 
 public class RadiDatabase {
 	protected String projectDir;
 	protected HtmlWikiRenderer renderer;
 	protected JXPProcessor jxp;
-	protected JXPInterpreter inti;
+	protected JXPInterpreterPool interpreters;
+	protected RadiIndex index;
+	protected LinkGraph links;
+	protected RenderCache cache;
+	protected BlockRenderCache blocks;
+	protected PageWriter pageWriter;
+	protected PageCatalog catalog;
+	protected int exportThreads;
+	protected boolean incrementalExport;
+	protected long scriptTimeout;
+	protected int maxScriptOutput;
+	protected PrintStream progress;
 	public final static int ARTICLE    = 0; 
 	public final static int BOOK       = 1; 
 	public final static int PROSPER    = 2; 
 	public final static int BEAMER     = 3; 
+	/**
+	 * the default time limit for JXP scripts in milliseconds
+	 */
+	public final static long SCRIPTTIMEOUT = 10000;
 	
 	/**
 	 * default constructor
@@ -40,14 +54,24 @@ public class RadiDatabase {
 		} else {
 			projectDir += File.separatorChar + "radidir";
 		}
+		scriptTimeout = SCRIPTTIMEOUT;
+		maxScriptOutput = 0;
+		pageWriter = new PageWriter();
         setDatabase(projectDir);
 		renderer = new HtmlWikiRenderer();
+		exportThreads = Runtime.getRuntime().availableProcessors();
+		incrementalExport = true;
 	}
 	/**
 	 * constructor with project dir as an argument
 	 */
 	public RadiDatabase(String database) throws IOException{
 		renderer = new HtmlWikiRenderer();
+		exportThreads = Runtime.getRuntime().availableProcessors();
+		incrementalExport = true;
+		scriptTimeout = SCRIPTTIMEOUT;
+		maxScriptOutput = 0;
+		pageWriter = new PageWriter();
 		setDatabase(database);
 	}
 	/**
@@ -59,10 +83,74 @@ public class RadiDatabase {
 		if(!f.exists()){
 			f.mkdir();
 		}
+		flushIndex();
+		if(catalog != null){
+			catalog.close();
+		}
 		projectDir = database;
+		catalog = new PageCatalog(database);
+		index = new RadiIndex(database, catalog);
+		links = new LinkGraph(database);
+		cache = new RenderCache();
+		blocks = new BlockRenderCache();
 		checkAndCopyTemplates();
-		inti = new BeanshellInterpreter(database);
-		jxp = new JXPProcessor(inti);
+		interpreters = new JXPInterpreterPool(database, 
+				Runtime.getRuntime().availableProcessors());
+		jxp = new JXPProcessor(interpreters);
+		jxp.setScriptLimits(scriptTimeout, maxScriptOutput);
+	}
+	/**
+	 * set the number of threads used for HTML exports
+	 * @param threads The number of threads, 1 for exporting sequentially
+	 */
+	public void setExportThreads(int threads){
+		exportThreads = Math.max(1,threads);
+	}
+	public int getExportThreads(){
+		return exportThreads;
+	}
+	/**
+	 * set if HTML, XHTML and Markdown exports skip pages which did not 
+	 * change since the last export into the same directory
+	 * @param incremental true for skipping unchanged pages, false for 
+	 * rendering all pages
+	 */
+	public void setIncrementalExport(boolean incremental){
+		incrementalExport = incremental;
+	}
+	/**
+	 * set a stream on which the name of each page is printed as it is read, 
+	 * for following the progress of exports
+	 * @param progress The stream to print to, null for no progress report
+	 */
+	public void setProgress(PrintStream progress){
+		this.progress = progress;
+	}
+	/**
+	 * print a message to the progress stream, if there is one
+	 * @param message The message to print
+	 */
+	public void reportProgress(String message){
+		if(progress != null){
+			progress.println(message);
+		}
+	}
+	/**
+	 * set the limits for JXP scripts
+	 * @param timeout The time a script may run in milliseconds, 0 for no limit
+	 * @param maxOutput The maximum number of characters a script may 
+	 * produce, 0 for no limit
+	 */
+	public void setScriptLimits(long timeout, int maxOutput){
+		scriptTimeout = timeout;
+		maxScriptOutput = maxOutput;
+		jxp.setScriptLimits(timeout, maxOutput);
+	}
+	/**
+	 * @return A report on the time taken by the JXP scripts in each page 
+	 */
+	public String getScriptStatistics(){
+		return jxp.getStatistics().toString();
 	}
 	/**
 	 * get the database identifier
@@ -79,11 +167,44 @@ public class RadiDatabase {
 	 * @throws IOException
 	 */
 	public String getWikiSource(String name){
-		File f = new File(getWikiFilename(name));
-		
+		return getWikiChars(name).toString();
+	}
+	/**
+	 * get the wiki file as source text after processing for JXP tags. 
+	 * Pages without JXP tags are returned as loaded, without copying them 
+	 * into a String. 
+	 * @param name The name of the file to get
+	 * @return The content of the file or empty data
+	 */
+	public CharSequence getWikiChars(String name){
+		return processJXP(name, getWikiPage(name));
+	}
+	/**
+	 * get the wiki file as source text before processing for JXP tags
+	 * @param name The name of the file to get
+	 * @return The content of the file or empty data
+	 */
+	public CharSequence getWikiPage(String name){
+		reportProgress(name);
 		try {
-			String rawFile = loadFileData(f);
-			return jxp.processJXP(rawFile);
+			return PageLoader.load(new File(getWikiFilename(name)));
+		}catch(IOException Eva){
+			return "= New File =\n";
+		}
+	}
+	/**
+	 * process a page for JXP tags
+	 * @param name The name of the page
+	 * @param page The page source as returned by getWikiPage()
+	 * @return The processed page, or page itself when it has no JXP tags
+	 */
+	public CharSequence processJXP(String name, CharSequence page){
+		if(!JXPTemplate.hasTags(page)){
+			return page;
+		}
+		try {
+			return jxp.processJXP(new File(getWikiFilename(name)).getName(), 
+					page.toString());
 		}catch(IOException Eva){
 			return "= New File =\n";
 		}
@@ -104,24 +225,104 @@ public class RadiDatabase {
 		}
 	}
 	/**
-	 * return a wiki file content rendered as html
+	 * return a wiki file content rendered as html. Rendered pages are 
+	 * cached as long as the file does not change.
 	 * @param name The name of the file to get 
 	 * @return The content of the file name rendered as html
 	 */
 	public String getWikiHtml(String name) {
+		CharSequence source;
+		String htmlContent;
+		boolean scripted = false;
+		
+		File f = new File(getWikiFilename(name));
+		long modified = f.lastModified();
+		long length = f.length();
+		htmlContent = cache.get(f.getName(), modified, length);
+		if(htmlContent != null){
+			return htmlContent;
+		}
+		
+		try {
+			CharBuffer page = PageLoader.load(f);
+			scripted = JXPTemplate.hasTags(page);
+			if(scripted){
+				source = jxp.processJXP(f.getName(), page.toString());
+			} else {
+				source = page;
+			}
+		}catch(IOException Eva){
+			source = "= New File =\n";
+		}
+		htmlContent = renderHtml(source);
+		cache.put(f.getName(), modified, length, scripted, htmlContent);
+		return htmlContent;
+	}
+	/**
+	 * render a page into the render cache ahead of time, in case it is 
+	 * viewed next. Pages with JXP scripts are left alone, as rendering 
+	 * them runs their scripts.
+	 * @param name The name of the page
+	 * @param r The renderer to use, so that getWikiHtml() is not held up
+	 * @return true when the page has been rendered
+	 */
+	public boolean prerenderWikiHtml(String name, HtmlWikiRenderer r){
+		File f = new File(getWikiFilename(name));
+		long modified = f.lastModified();
+		long length = f.length();
+		
+		if(!f.exists() || cache.isCurrent(f.getName(), modified, length)){
+			return false;
+		}
+		try {
+			CharBuffer page = PageLoader.load(f);
+			if(JXPTemplate.hasTags(page)){
+				return false;
+			}
+			cache.put(f.getName(), modified, length, false, blocks.render(r, page));
+			return true;
+		}catch(IOException eva){
+			return false;
+		}
+	}
+	/**
+	 * render the source of a page being edited, for previewing it. JXP 
+	 * scripts are not run, as this happens whenever the user pauses 
+	 * typing.
+	 * @param source The wiki source text
+	 * @param r The renderer to use, so that getWikiHtml() is not held up
+	 * @return The source rendered as html
+	 * @throws IOException when the renderer fails
+	 */
+	public String renderPreview(CharSequence source, HtmlWikiRenderer r) throws IOException{
+		return blocks.render(r, source);
+	}
+	/**
+	 * get the cache for rendered pages
+	 * @return The render cache
+	 */
+	public RenderCache getRenderCache(){
+		return cache;
+	}
+	/**
+	 * render wiki source as html. The renderer is shared, thus pages 
+	 * are rendered one at a time. Only the blocks of the page which 
+	 * changed since they were last rendered are rendered again.
+	 * @param source The wiki source text
+	 * @return The source rendered as html
+	 */
+	private String renderHtml(CharSequence source){
 		String htmlContent = "<h1>New File</h1>";
-		String source = getWikiSource(name);
 		try{
 //			HtmlWikiTokenFilter wtf = new HtmlWikiTokenFilter(new JFlexWikiLexer(new StringReader(source)));
-			StateMachineTokenFilter wtf = new StateMachineTokenFilter(new JFlexWikiLexer(new StringReader(source)));
-			htmlContent = renderer.render(wtf);
+			synchronized(renderer){
+				htmlContent = blocks.render(renderer, source);
+			}
 		}catch(IOException eva){
 			System.out.println("This should not happen: IOException " + eva.getMessage());
 			eva.printStackTrace();
 		}
-		StringBuffer htmlText = new StringBuffer();
-		htmlText.append(htmlContent);
-		return htmlText.toString();
+		return htmlContent;
 	}
 	/**
 	 * save  new wiki content to file  
@@ -130,10 +331,27 @@ public class RadiDatabase {
 	 * @throws IOException When things go wrong
 	 */
 	public void saveWikiData(String file, String content)throws IOException{
-		PrintWriter out = new PrintWriter(new 
-				FileWriter(getWikiFilename(file)));
-		out.println(content);
-		out.close();
+		String filename = getWikiFilename(file);
+		pageWriter.write(new File(filename), 
+				content + System.getProperty("line.separator"));
+		catalog.add(new File(filename).getName());
+		cache.remove(new File(filename).getName());
+		index.updatePage(new File(filename).getName(), content);
+		links.updatePage(new File(filename).getName(), content);
+	}
+	/**
+	 * start saving a batch of pages: pages are forced to disk together at 
+	 * the end of the batch instead of one by one
+	 */
+	public void beginBatch(){
+		pageWriter.beginBatch();
+	}
+	/**
+	 * end a batch of saves started with beginBatch()
+	 * @throws IOException when forcing the pages to disk fails
+	 */
+	public void endBatch() throws IOException{
+		pageWriter.endBatch();
 	}
 	/**
 	 * delete a wiki file
@@ -142,28 +360,25 @@ public class RadiDatabase {
 	public void deleteWikiFile(String name){
 		File f = new File(getWikiFilename(name));
 		f.delete();
+		catalog.remove(f.getName());
+		cache.remove(f.getName());
+		index.removePage(f.getName());
+		links.removePage(f.getName());
 	}
 	/**
-	 * get the list of all Ziki files
+	 * get the list of all Ziki files. The list comes from the page catalog, 
+	 * is shared and must not be modified.
 	 * @return A vector containg all radieschen files
 	 */
 	public Vector getWikiFileList(){
-		Vector v = new Vector();
-		int i;
-		
-		File f = new File(projectDir);
-		String dirList[] = f.list();
-		Arrays.sort(dirList);
-		if(dirList != null){
-			for(i = 0; i < dirList.length; i++ ){
-				if(dirList[i].indexOf(".radi") > 0){
-					v.add(dirList[i]);
-				}
-			}
-		} else {
-			v.add("Start.radi");
-		}
-		return v;
+		return catalog.getPages();
+	}
+	/**
+	 * @return A number which changes whenever the list of wiki files 
+	 * changes
+	 */
+	public long getWikiFileListVersion(){
+		return catalog.getVersion();
 	}
 	/**
 	 * get the filename of the wiki file
@@ -186,9 +401,10 @@ public class RadiDatabase {
 	 * @return true or false
 	 */
 	public boolean radiExists(String name){
-		String fname = projectDir + File.separatorChar + name;
-		File f = new File(fname);
-		return f.exists();
+		if(PageCatalog.isPage(name)){
+			return catalog.contains(name);
+		}
+		return new File(projectDir + File.separatorChar + name).exists();
 	}
 	/**
 	 * exports the page decribed by radiFile with all linked pages into targetDir
@@ -199,6 +415,8 @@ public class RadiDatabase {
 	public void exportHtml(String targetDir, String radiFile, 
 			String cssFile) throws IOException{
 		HtmlExportWikiRenderer h = new HtmlExportWikiRenderer();
+		h.setParallelism(exportThreads);
+		h.setIncremental(incrementalExport);
 		h.export(radiFile,targetDir,this,cssFile);
 	}
 	/**
@@ -234,6 +452,7 @@ public class RadiDatabase {
 	public void exportXHtml(String targetDir, String radiFile, 
 			String cssFile) throws IOException{
 		XHtmlExportWikiRenderer h = new XHtmlExportWikiRenderer();
+		h.setIncremental(incrementalExport);
 		h.export(radiFile,targetDir,this,cssFile);
 	}
 	/**
@@ -245,6 +464,7 @@ public class RadiDatabase {
 	public void exportMarkdown(String targetDir, String radiFile, 
 			String cssFile) throws IOException{
 		MarkdownRenderer h = new MarkdownRenderer();
+		h.setIncremental(incrementalExport);
 		h.export(radiFile,targetDir,this,cssFile);
 	}
 	/**
@@ -269,12 +489,15 @@ public class RadiDatabase {
 		}
 	}
 	/**
-	 * search the database for the pattern specified
+	 * search the database for the pattern specified. Plain words and phrases
+	 * are looked up in the full text index, real regular expressions 
+	 * require a scan through all files.
 	 * @param pattern The pattern to search for
 	 * @return the text of a pga eto render with the serah results.
 	 */
 	public String searchDatabase(String pattern){
 		StringBuffer result = new StringBuffer();
+		Vector hits;
         int i;
 		
 		result.append(HtmlHeader.makeHtml3Header("SearchResults",projectDir,null));
@@ -283,6 +506,126 @@ public class RadiDatabase {
 		result.append(pattern);
 		result.append("</h1>\n");
 		
+		hits = findPages(pattern);
+		for(i = 0; i < hits.size(); i++){
+			result.append("<h3><a href=\"radi://");
+			result.append(hits.get(i));
+			result.append("\">");
+			result.append(hits.get(i));
+			result.append("</a></h3>\n");
+		}
+		
+		result.append("</body></html>");
+		return result.toString();
+	}
+	/**
+	 * find the pages matching a pattern. Plain words and phrases are looked
+	 * up in the full text index, real regular expressions require a scan 
+	 * through all files.
+	 * @param pattern The pattern to search for
+	 * @return The names of the matching pages
+	 */
+	public Vector findPages(String pattern){
+		Vector hits = index.search(pattern);
+		if(hits == null){
+			hits = scanDatabase(pattern);
+		}
+		return hits;
+	}
+	/**
+	 * write pending changes to the search index and the link graph to disk.
+	 * To be called before the application exits.
+	 */
+	public void flushIndex(){
+		if(index == null){
+			return;
+		}
+		try{
+			index.flush();
+		}catch(IOException eva){
+			System.out.println("Failed to write search index: " + eva.getMessage());
+		}
+		try{
+			links.flush();
+		}catch(IOException eva){
+			System.out.println("Failed to write link graph: " + eva.getMessage());
+		}
+	}
+	/**
+	 * build the search index and the link graph from scratch
+	 * @throws IOException when they cannot be written
+	 */
+	public void rebuildIndex() throws IOException{
+		index.rebuild();
+		links.rebuild();
+	}
+	/**
+	 * get the graph of links between the pages
+	 * @return The link graph
+	 */
+	public LinkGraph getLinkGraph(){
+		return links;
+	}
+	/**
+	 * make a report on the links of a page: the pages it links to, the pages
+	 * linking to it and, for the whole database, orphan pages and links 
+	 * to missing pages.
+	 * @param name The page to report on
+	 * @return The report as plain text
+	 */
+	public String getLinkReport(String name){
+		StringBuffer stb = new StringBuffer();
+		String page = new File(getWikiFilename(name)).getName();
+		Vector dangling;
+		int i;
+		
+		appendList(stb, "Links from " + page, links.getLinks(page));
+		appendList(stb, "Links to " + page, links.getBacklinks(page));
+		appendList(stb, "Pages no other page links to", links.getOrphans());
+		stb.append("Missing pages\n");
+		dangling = links.getDanglingLinks();
+		for(i = 0; i < dangling.size(); i++){
+			stb.append('\t');
+			stb.append(dangling.get(i));
+			stb.append(" linked from ");
+			stb.append(join(links.getBacklinks((String)dangling.get(i))));
+			stb.append('\n');
+		}
+		return stb.toString();
+	}
+	private static void appendList(StringBuffer stb, String title, Vector v){
+		int i;
+		
+		stb.append(title);
+		stb.append('\n');
+		for(i = 0; i < v.size(); i++){
+			stb.append('\t');
+			stb.append(v.get(i));
+			stb.append('\n');
+		}
+		stb.append('\n');
+	}
+	private static String join(Vector v){
+		StringBuffer stb = new StringBuffer();
+		int i;
+		
+		for(i = 0; i < v.size(); i++){
+			if(i > 0){
+				stb.append(", ");
+			}
+			stb.append(v.get(i));
+		}
+		return stb.toString();
+	}
+	/**
+	 * search all files for a regular expression
+	 * @param pattern The regular expression to search for
+	 * @return A Vector with the names of the matching files
+	 */
+	private Vector scanDatabase(String pattern){
+		Vector hits = new Vector();
+		int i;
+		
 		Pattern p = Pattern.compile(pattern,Pattern.CASE_INSENSITIVE);
 		
 		File d = new File(projectDir);
@@ -290,21 +633,13 @@ public class RadiDatabase {
 		for(i = 0; i < radiNames.length; i++){
 			try{
 				File f = new File(projectDir + File.separatorChar + radiNames[i]);
-				FileReader r = new FileReader(f);
-				String fileTxt = IOUtils.toString(r);
-				Matcher m = p.matcher(fileTxt);
+				Matcher m = p.matcher(PageLoader.load(f));
 				if(m.find() ){
-					result.append("<h3><a href=\"radi://");
-					result.append(radiNames[i]);
-					result.append("\">");
-					result.append(radiNames[i]);
-					result.append("</a></h3>\n");
+					hits.add(radiNames[i]);
 				}
 			}catch(Exception eva){}
 		}
-		
-		result.append("</body></html>");
-		return result.toString();
+		return hits;
 	}
 	/**
 	 * Make sure that all necessary template files live
@@ -337,16 +672,6 @@ public class RadiDatabase {
 	 * @throws IOException
 	 */
 	private String loadFileData(File f) throws IOException{
-		String line;
-		StringBuffer data;
-
-		data = new StringBuffer();
-
-		BufferedReader in = new BufferedReader(new FileReader(f));
- 		while((line = in.readLine()) != null){
-			data.append(line);
-			data.append('\n');
-		}
-		return data.toString();
+		return PageLoader.loadString(f);
 	}
 }
@@ -0,0 +1,673 @@
+/**
+ * This is a persistent inverted full text index over the pages in a
+ * Radieschen database directory. Page text is split into terms: runs of
+ * letters and digits, lower cased. For each term a posting list is kept
+ * which holds, for each page containing the term, the page id and the
+ * positions of the term within the page. The posting lists are flattened
+ * into int arrays of the form: pageId, count, pos1 .. posCount, pageId, ...
+ *
+ * The index lives in the file .radiindex in the database directory. It is
+ * loaded lazily on first use and validated against the modification time
+ * and size of each page, so that pages changed behind our back, for example
+ * by an external editor, are reindexed. As this means looking at every
+ * page, it is repeated only every STALEINTERVAL. In between, pages created
+ * or deleted are taken from the PageCatalog. Changes made through
+ * RadiDatabase are applied incrementally through updatePage() and
+ * removePage().
+ *
+ * Queries consisting of words only are answered from the index. A single
+ * word matches like the regular expression did: anywhere inside a term.
+ * Phrases are matched through the term positions and the few candidate
+ * pages are then verified against the regular expression. Anything else
+ * is a real regular expression and the caller has to scan the files.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class RadiIndex {
+	public final static String INDEXFILE = ".radiindex";
+	private final static int MAGIC = 0x52494458;
+	private final static int VERSION = 1;
+	/**
+	 * flush the index to disk after this many incremental updates
+	 */
+	private final static int FLUSHINTERVAL = 50;
+	/**
+	 * the time after which pages are checked for modifications again, in
+	 * milliseconds
+	 */
+	public final static long STALEINTERVAL = PageCatalog.RESCANINTERVAL;
+
+	protected String projectDir;
+	private PageCatalog catalog;
+	private long catalogVersion, lastRefresh;
+	private HashMap terms;   // term -> IntList posting list
+	private HashMap pageIds; // page name -> Integer id
+	private ArrayList pages; // id -> PageEntry, null for removed pages
+	private boolean loaded;
+	private int pendingUpdates;
+
+	/**
+	 * bookkeeping for a single page
+	 */
+	private static class PageEntry {
+		String name;
+		long lastModified, length;
+		HashSet terms;
+
+		PageEntry(String name){
+			this.name = name;
+			terms = new HashSet();
+		}
+	}
+	/**
+	 * a growable int array, used for posting lists
+	 */
+	private static class IntList {
+		int data[];
+		int size;
+
+		IntList(int capacity){
+			data = new int[capacity];
+			size = 0;
+		}
+		void add(int val){
+			if(size >= data.length){
+				int newData[] = new int[data.length*2 + 4];
+				System.arraycopy(data, 0, newData, 0, size);
+				data = newData;
+			}
+			data[size++] = val;
+		}
+		/**
+		 * remove the block belonging to page id
+		 * @param id The page id to remove
+		 */
+		void removePage(int id){
+			int i = 0, j = 0, len;
+			while(i < size){
+				len = data[i+1] + 2;
+				if(data[i] != id){
+					if(i != j){
+						System.arraycopy(data, i, data, j, len);
+					}
+					j += len;
+				}
+				i += len;
+			}
+			size = j;
+		}
+	}
+
+	/**
+	 * constructor
+	 * @param projectDir The database directory to index
+	 */
+	public RadiIndex(String projectDir){
+		this(projectDir, null);
+	}
+	/**
+	 * constructor
+	 * @param projectDir The database directory to index
+	 * @param catalog The catalog of the pages in projectDir, telling about
+	 * pages created or deleted. May be null.
+	 */
+	public RadiIndex(String projectDir, PageCatalog catalog){
+		this.projectDir = projectDir;
+		this.catalog = catalog;
+		clear();
+		loaded = false;
+	}
+	/**
+	 * search for pattern.
+	 * @param pattern The pattern to search for
+	 * @return A sorted Vector of the matching page file names or null when
+	 * the pattern is a regular expression which cannot be answered from
+	 * the index.
+	 */
+	public synchronized Vector search(String pattern){
+		String query[];
+		TreeSet found;
+
+		if(!isPlainQuery(pattern)){
+			return null;
+		}
+		ensureLoaded();
+		checkFresh();
+
+		query = tokenize(pattern);
+		if(query.length == 1 && pattern.trim().length() == pattern.length()){
+			found = findWord(query[0]);
+		} else {
+			found = verify(findPhrase(query), pattern);
+		}
+		return new Vector(found);
+	}
+	/**
+	 * update the index for a page which has been saved
+	 * @param name The file name of the page
+	 * @param content The new content of the page
+	 */
+	public synchronized void updatePage(String name, String content){
+		if(!loaded){
+			// will be picked up by the modification time check on load
+			return;
+		}
+		indexPage(name, content, new File(projectDir, name));
+		noteUpdate();
+	}
+	/**
+	 * remove a page from the index
+	 * @param name The file name of the page
+	 */
+	public synchronized void removePage(String name){
+		if(!loaded){
+			return;
+		}
+		dropPage(name);
+		noteUpdate();
+	}
+	/**
+	 * throw away the index and build it from scratch
+	 * @throws IOException when the index cannot be written
+	 */
+	public synchronized void rebuild() throws IOException{
+		clear();
+		loaded = true;
+		refresh();
+		flush();
+	}
+	/**
+	 * write the index to disk if it has been changed
+	 * @throws IOException when things go wrong
+	 */
+	public synchronized void flush() throws IOException {
+		if(!loaded || pendingUpdates == 0){
+			return;
+		}
+		File tmp = new File(projectDir, INDEXFILE + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+			writeIndex(out);
+		} finally {
+			out.close();
+		}
+		PageWriter.replace(tmp, new File(projectDir, INDEXFILE));
+		pendingUpdates = 0;
+	}
+	/**
+	 * check if pattern can be answered from the index: it may only contain
+	 * letters, digits and whitespace
+	 * @param pattern The pattern to check
+	 * @return true when the index can be used
+	 */
+	static boolean isPlainQuery(String pattern){
+		int i;
+		char c;
+		boolean word = false;
+
+		for(i = 0; i < pattern.length(); i++){
+			c = pattern.charAt(i);
+			if(Character.isLetterOrDigit(c)){
+				word = true;
+			} else if(c != ' ' && c != '\t'){
+				return false;
+			}
+		}
+		return word;
+	}
+	/**
+	 * split text into lower case terms
+	 * @param text The text to split
+	 * @return The terms in the order of appearance
+	 */
+	static String[] tokenize(String text){
+		ArrayList l = new ArrayList();
+		StringBuffer term = new StringBuffer();
+		int i;
+		char c;
+
+		for(i = 0; i < text.length(); i++){
+			c = text.charAt(i);
+			if(Character.isLetterOrDigit(c)){
+				term.append(Character.toLowerCase(c));
+			} else if(term.length() > 0){
+				l.add(term.toString());
+				term.setLength(0);
+			}
+		}
+		if(term.length() > 0){
+			l.add(term.toString());
+		}
+		return (String [])l.toArray(new String[l.size()]);
+	}
+	/**
+	 * find all pages where word appears inside a term
+	 * @param word The word to look for
+	 * @return The set of matching page names
+	 */
+	private TreeSet findWord(String word){
+		TreeSet result = new TreeSet();
+		Iterator it = terms.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry e = (Map.Entry)it.next();
+			if(((String)e.getKey()).indexOf(word) >= 0){
+				addPages((IntList)e.getValue(), result);
+			}
+		}
+		return result;
+	}
+	/**
+	 * find the candidate pages for a phrase. The first term may be the end of
+	 * a longer term, the last the start of one, all others have to match
+	 * exactly and the terms must appear at consecutive positions.
+	 * @param query The terms of the phrase
+	 * @return The set of candidate page names
+	 */
+	private TreeSet findPhrase(String query[]){
+		HashSet current = new HashSet(), next;
+		TreeSet result = new TreeSet();
+		IntList pl;
+		int i, k, n, page, count;
+
+		Iterator it = terms.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry e = (Map.Entry)it.next();
+			String term = (String)e.getKey();
+			if((query.length == 1 && term.indexOf(query[0]) >= 0) ||
+					(query.length > 1 && term.endsWith(query[0]))){
+				pl = (IntList)e.getValue();
+				for(i = 0; i < pl.size; i += count + 2){
+					page = pl.data[i];
+					count = pl.data[i+1];
+					for(k = 0; k < count; k++){
+						current.add(new Long(key(page, pl.data[i+2+k])));
+					}
+				}
+			}
+		}
+
+		for(n = 1; n < query.length && !current.isEmpty(); n++){
+			next = new HashSet();
+			it = terms.entrySet().iterator();
+			while(it.hasNext()){
+				Map.Entry e = (Map.Entry)it.next();
+				String term = (String)e.getKey();
+				if(term.equals(query[n]) ||
+						(n == query.length - 1 && term.startsWith(query[n]))){
+					pl = (IntList)e.getValue();
+					for(i = 0; i < pl.size; i += count + 2){
+						page = pl.data[i];
+						count = pl.data[i+1];
+						for(k = 0; k < count; k++){
+							if(current.contains(new Long(key(page, pl.data[i+2+k]-1)))){
+								next.add(new Long(key(page, pl.data[i+2+k])));
+							}
+						}
+					}
+				}
+			}
+			current = next;
+		}
+
+		it = current.iterator();
+		while(it.hasNext()){
+			page = (int)(((Long)it.next()).longValue() >>> 32);
+			result.add(((PageEntry)pages.get(page)).name);
+		}
+		return result;
+	}
+	/**
+	 * run the regular expression over the candidate pages only
+	 * @param candidates The candidate page names
+	 * @param pattern The search pattern
+	 * @return The pages which really match
+	 */
+	private TreeSet verify(TreeSet candidates, String pattern){
+		TreeSet result = new TreeSet();
+		Pattern p = Pattern.compile(pattern,Pattern.CASE_INSENSITIVE);
+		Iterator it = candidates.iterator();
+		while(it.hasNext()){
+			String name = (String)it.next();
+			try {
+				Matcher m = p.matcher(readPage(new File(projectDir, name)));
+				if(m.find()){
+					result.add(name);
+				}
+			}catch(IOException eva){}
+		}
+		return result;
+	}
+	private static long key(int page, int pos){
+		return ((long)page << 32) | (pos & 0xffffffffL);
+	}
+	private void addPages(IntList pl, TreeSet result){
+		int i;
+		for(i = 0; i < pl.size; i += pl.data[i+1] + 2){
+			result.add(((PageEntry)pages.get(pl.data[i])).name);
+		}
+	}
+	/**
+	 * make sure that the index has been loaded or built
+	 */
+	private void ensureLoaded(){
+		if(loaded){
+			return;
+		}
+		try {
+			File f = new File(projectDir, INDEXFILE);
+			if(f.exists()){
+				DataInputStream in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(f)));
+				try {
+					readIndex(in);
+				} finally {
+					in.close();
+				}
+			}
+		}catch(IOException eva){
+			System.out.println("Rebuilding damaged search index: " + eva.getMessage());
+			clear();
+		}
+		loaded = true;
+		refresh();
+	}
+	/**
+	 * refresh the index when the pages have not been checked for 
+	 * STALEINTERVAL, or pick up the pages created or deleted when the 
+	 * catalog has changed
+	 */
+	private void checkFresh(){
+		if(System.currentTimeMillis() - lastRefresh > STALEINTERVAL){
+			refresh();
+		} else if(catalog != null && catalog.getVersion() != catalogVersion){
+			syncPages();
+		}
+	}
+	/**
+	 * bring the index in line with the directory: index new and
+	 * modified pages, drop deleted ones.
+	 */
+	private void refresh(){
+		HashSet present = new HashSet();
+		PageEntry pe;
+		Integer id;
+		int i;
+
+		if(catalog != null){
+			catalogVersion = catalog.getVersion();
+		}
+		lastRefresh = System.currentTimeMillis();
+		String radiNames[] = new File(projectDir).list();
+		if(radiNames == null){
+			return;
+		}
+		for(i = 0; i < radiNames.length; i++){
+			if(!radiNames[i].endsWith(".radi")){
+				continue;
+			}
+			present.add(radiNames[i]);
+			File f = new File(projectDir, radiNames[i]);
+			id = (Integer)pageIds.get(radiNames[i]);
+			if(id != null){
+				pe = (PageEntry)pages.get(id.intValue());
+				if(pe.lastModified == f.lastModified() && pe.length == f.length()){
+					continue;
+				}
+			}
+			try {
+				indexPage(radiNames[i], readPage(f), f);
+				pendingUpdates++;
+			}catch(IOException eva){}
+		}
+		dropMissing(present);
+	}
+	/**
+	 * bring the index in line with the catalog: index pages which are not
+	 * in the index yet, drop deleted ones. Pages already indexed are not 
+	 * looked at.
+	 */
+	private void syncPages(){
+		HashSet present = new HashSet();
+		Vector names;
+		String name;
+		int i;
+
+		catalogVersion = catalog.getVersion();
+		names = catalog.getPages();
+		for(i = 0; i < names.size(); i++){
+			name = (String)names.get(i);
+			if(!name.endsWith(".radi")){
+				continue;
+			}
+			present.add(name);
+			if(pageIds.containsKey(name)){
+				continue;
+			}
+			File f = new File(projectDir, name);
+			try {
+				indexPage(name, readPage(f), f);
+				pendingUpdates++;
+			}catch(IOException eva){}
+		}
+		dropMissing(present);
+	}
+	/**
+	 * drop the pages which are gone and write the index when it has changed
+	 * @param present The names of the pages present
+	 */
+	private void dropMissing(HashSet present){
+		PageEntry pe;
+		int i;
+
+		for(i = 0; i < pages.size(); i++){
+			pe = (PageEntry)pages.get(i);
+			if(pe != null && !present.contains(pe.name)){
+				dropPage(pe.name);
+				pendingUpdates++;
+			}
+		}
+		if(pendingUpdates > 0){
+			try {
+				flush();
+			}catch(IOException eva){
+				System.out.println("Failed to write search index: " + eva.getMessage());
+			}
+		}
+	}
+	/**
+	 * (re)index a single page
+	 * @param name The page file name
+	 * @param content The page text
+	 * @param f The page file, for the modification time check
+	 */
+	private void indexPage(String name, String content, File f){
+		HashMap positions = new HashMap();
+		IntList pos, pl;
+		String words[];
+		PageEntry pe;
+		int i, id;
+
+		dropPage(name);
+		id = pages.size();
+		pe = new PageEntry(name);
+		pe.lastModified = f.lastModified();
+		pe.length = f.length();
+		pages.add(pe);
+		pageIds.put(name, new Integer(id));
+
+		words = tokenize(content);
+		for(i = 0; i < words.length; i++){
+			pos = (IntList)positions.get(words[i]);
+			if(pos == null){
+				pos = new IntList(4);
+				positions.put(words[i], pos);
+			}
+			pos.add(i);
+		}
+		Iterator it = positions.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry e = (Map.Entry)it.next();
+			String term = (String)e.getKey();
+			pos = (IntList)e.getValue();
+			pl = (IntList)terms.get(term);
+			if(pl == null){
+				pl = new IntList(pos.size + 2);
+				terms.put(term, pl);
+			}
+			pl.add(id);
+			pl.add(pos.size);
+			for(i = 0; i < pos.size; i++){
+				pl.add(pos.data[i]);
+			}
+			pe.terms.add(term);
+		}
+	}
+	/**
+	 * remove all postings of a page
+	 * @param name The page file name
+	 */
+	private void dropPage(String name){
+		Integer id = (Integer)pageIds.remove(name);
+		if(id == null){
+			return;
+		}
+		PageEntry pe = (PageEntry)pages.get(id.intValue());
+		Iterator it = pe.terms.iterator();
+		while(it.hasNext()){
+			String term = (String)it.next();
+			IntList pl = (IntList)terms.get(term);
+			pl.removePage(id.intValue());
+			if(pl.size == 0){
+				terms.remove(term);
+			}
+		}
+		pages.set(id.intValue(), null);
+	}
+	private void noteUpdate(){
+		pendingUpdates++;
+		if(pendingUpdates >= FLUSHINTERVAL){
+			try {
+				flush();
+			}catch(IOException eva){
+				System.out.println("Failed to write search index: " + eva.getMessage());
+			}
+		}
+	}
+	private void clear(){
+		terms = new HashMap();
+		pageIds = new HashMap();
+		pages = new ArrayList();
+		pendingUpdates = 0;
+	}
+	/**
+	 * write the index. Page ids are compacted on the way.
+	 * @param out The stream to write to
+	 * @throws IOException when things go wrong
+	 */
+	private void writeIndex(DataOutputStream out) throws IOException{
+		int remap[] = new int[pages.size()];
+		int i, j, count, newId = 0;
+		PageEntry pe;
+		IntList pl;
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(pageIds.size());
+		for(i = 0; i < pages.size(); i++){
+			pe = (PageEntry)pages.get(i);
+			if(pe != null){
+				remap[i] = newId++;
+				writeString(out, pe.name);
+				out.writeLong(pe.lastModified);
+				out.writeLong(pe.length);
+			}
+		}
+		out.writeInt(terms.size());
+		Iterator it = terms.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry e = (Map.Entry)it.next();
+			writeString(out, (String)e.getKey());
+			pl = (IntList)e.getValue();
+			out.writeInt(pl.size);
+			for(i = 0; i < pl.size; i += count + 2){
+				count = pl.data[i+1];
+				out.writeInt(remap[pl.data[i]]);
+				out.writeInt(count);
+				for(j = 0; j < count; j++){
+					out.writeInt(pl.data[i+2+j]);
+				}
+			}
+		}
+	}
+	/**
+	 * read the index
+	 * @param in The stream to read from
+	 * @throws IOException when the index is damaged or outdated
+	 */
+	private void readIndex(DataInputStream in) throws IOException{
+		int i, j, count, size;
+		PageEntry pe;
+		IntList pl;
+		String term;
+
+		if(in.readInt() != MAGIC || in.readInt() != VERSION){
+			throw new IOException("Bad index file format");
+		}
+		count = in.readInt();
+		for(i = 0; i < count; i++){
+			pe = new PageEntry(readString(in));
+			pe.lastModified = in.readLong();
+			pe.length = in.readLong();
+			pageIds.put(pe.name, new Integer(pages.size()));
+			pages.add(pe);
+		}
+		count = in.readInt();
+		for(i = 0; i < count; i++){
+			term = readString(in);
+			size = in.readInt();
+			pl = new IntList(size);
+			for(j = 0; j < size; j++){
+				pl.add(in.readInt());
+			}
+			for(j = 0; j < size; j += pl.data[j+1] + 2){
+				((PageEntry)pages.get(pl.data[j])).terms.add(term);
+			}
+			terms.put(term, pl);
+		}
+	}
+	private static void writeString(DataOutputStream out, String s) throws IOException{
+		out.writeInt(s.length());
+		out.writeChars(s);
+	}
+	private static String readString(DataInputStream in) throws IOException{
+		int i, length = in.readInt();
+		char c[] = new char[length];
+		for(i = 0; i < length; i++){
+			c[i] = in.readChar();
+		}
+		return new String(c);
+	}
+	/**
+	 * read a page into a String
+	 * @param f The file to read
+	 * @return The file content
+	 * @throws IOException when things go wrong
+	 */
+	private static String readPage(File f) throws IOException {
+		return PageLoader.loadString(f);
+	}
+}
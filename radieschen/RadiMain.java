@@ -24,18 +24,28 @@ import javax.swing.event.ListSelectionEvent;
 
 import java.awt.Container;
 import java.awt.Frame;
+import java.awt.Point;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 
+import javax.swing.text.DefaultCaret;
 import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
+import javax.swing.text.html.HTMLEditorKit;
 
 import java.io.*;
+import java.util.List;
 import java.util.Stack;
 import java.net.URL;
 import java.util.Properties;
 import java.util.Vector;
 import java.util.Enumeration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.io.FileUtils;
 
@@ -46,6 +56,8 @@ import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.event.UndoableEditListener;
 import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.DocumentEvent;
 
 public class RadiMain implements HyperlinkListener,
 	ListSelectionListener {
@@ -60,6 +72,32 @@ public class RadiMain implements HyperlinkListener,
 	protected Properties radiProperty;
 	protected String cssFile;
 	protected String oldExportDir;
+	protected long fileListVersion;
+	/**
+	 * pages and search results are prepared in the background, one at a 
+	 * time, by pageLoader. pageWorker is the latest request: only its 
+	 * result is displayed.
+	 */
+	protected ExecutorService pageLoader;
+	protected SwingWorker pageWorker;
+	protected SwingWorker exportWorker;
+	protected Prefetcher prefetcher;
+	/**
+	 * while editing, the page is rendered into preview by previewer 
+	 * whenever the user pauses typing for PREVIEWDELAY milliseconds, or 
+	 * for as long as displaying the last preview took, if longer. 
+	 * previewWorker is the latest request: only its result is displayed, 
+	 * and only if the user has not typed on.
+	 */
+	protected final static int PREVIEWDELAY = 300;
+	protected JEditorPane preview;
+	protected JSplitPane editSplit;
+	protected ExecutorService previewer;
+	protected HtmlWikiRenderer previewRenderer;
+	protected HTMLEditorKit previewKit;
+	protected SwingWorker previewWorker;
+	protected Timer previewTimer;
+	protected PreviewListener previewListener;
 	/**
 	 * all the Undoe, Redo stuff copied from the Notepad demo application
 	 * coming with the Java SDK
@@ -138,7 +176,183 @@ public class RadiMain implements HyperlinkListener,
     	    }
     	}
         }
-	
+
+	/**
+	 * renders a page in the background and displays it, unless another
+	 * page has been requested in the meantime
+	 */
+	class PageWorker extends SwingWorker {
+		private String file, anchor;
+
+		PageWorker(String file, String anchor){
+			this.file = file;
+			this.anchor = anchor;
+		}
+		protected Object doInBackground(){
+			return makePageHtml(file);
+		}
+		protected void done(){
+			if(this != pageWorker || isCancelled()){
+				return;
+			}
+			pageWorker = null;
+			try{
+				eddi.setContentType("text/html");
+				eddi.setEditable(false);
+				eddi.setText((String)get());
+				eddi.requestFocus();
+				if(anchor != null){
+					eddi.scrollToReference(anchor);
+				} else {
+					eddi.setCaretPosition(0);
+				}
+				setStatus(file);
+				prefetcher.prefetch(file, urlStack);
+			}catch(Exception eva){
+				showError(eva);
+			}
+		}
+	}
+	/**
+	 * renders the page being edited in the background and displays it in
+	 * the preview, unless the text has changed again in the meantime
+	 */
+	class PreviewWorker extends SwingWorker {
+		private String file, source;
+
+		PreviewWorker(String file, String source){
+			this.file = file;
+			this.source = source;
+		}
+		/*
+		 * the html is parsed here too, as on large pages this takes as 
+		 * long as rendering
+		 */
+		protected Object doInBackground() throws Exception{
+			StringBuffer htmlText = new StringBuffer();
+			htmlText.append(HtmlHeader.makeHtml3Header(file,db.getDatabase(),cssFile));
+			htmlText.append(db.renderPreview(source, previewRenderer));
+			htmlText.append("</body></html>\n");
+			Document doc = previewKit.createDefaultDocument();
+			previewKit.read(new StringReader(htmlText.toString()), doc, 0);
+			return doc;
+		}
+		protected void done(){
+			if(this != previewWorker || isCancelled() || previewTimer.isRunning()){
+				return;
+			}
+			previewWorker = null;
+			try{
+				final JViewport view = (JViewport)preview.getParent();
+				final Point pos = view.getViewPosition();
+				long start = System.currentTimeMillis();
+				preview.setDocument((Document)get());
+				previewTimer.setInitialDelay(Math.max(PREVIEWDELAY, 
+						(int)(System.currentTimeMillis() - start)));
+				SwingUtilities.invokeLater(new Runnable(){
+					public void run(){
+						view.setViewPosition(pos);
+					}
+				});
+			}catch(ExecutionException eva){
+				showStatus("Preview failed: " + eva.getCause().getMessage());
+			}catch(Exception eva){
+				showStatus("Preview failed: " + eva.getMessage());
+			}
+		}
+	}
+	/**
+	 * restarts the preview timer whenever the text being edited changes
+	 */
+	class PreviewListener implements DocumentListener {
+		public void insertUpdate(DocumentEvent e){
+			previewTimer.restart();
+		}
+		public void removeUpdate(DocumentEvent e){
+			previewTimer.restart();
+		}
+		public void changedUpdate(DocumentEvent e){
+		}
+	}
+	/**
+	 * searches the database in the background and displays the results,
+	 * unless another page has been requested in the meantime
+	 */
+	class SearchWorker extends SwingWorker {
+		private String pattern;
+
+		SearchWorker(String pattern){
+			this.pattern = pattern;
+		}
+		protected Object doInBackground(){
+			return db.searchDatabase(pattern);
+		}
+		protected void done(){
+			if(this != pageWorker || isCancelled()){
+				return;
+			}
+			pageWorker = null;
+			try{
+				String htmlResult = (String)get();
+				urlStack.push(currentUrl);
+				eddi.setEditorKit(null);
+				eddi.setEditable(false);
+				eddi.setContentType("text/html");
+				eddi.setText(htmlResult);
+				eddi.revalidate();
+				eddi.requestFocus();
+				setStatus("Search Results for " + pattern);
+			}catch(Exception eva){
+				showError(eva);
+			}
+		}
+	}
+	/**
+	 * runs an export in the background, showing the pages exported in the
+	 * status line
+	 */
+	abstract class ExportWorker extends SwingWorker {
+		protected String targetDir, page;
+
+		ExportWorker(String targetDir){
+			this.targetDir = targetDir;
+			this.page = currentFile;
+		}
+		/**
+		 * do the actual export
+		 * @throws IOException when things go wrong
+		 */
+		protected abstract void export() throws IOException;
+
+		protected Object doInBackground() throws Exception{
+			db.setProgress(new PrintStream(new ByteArrayOutputStream()){
+				public void println(String x){
+					publish(x);
+				}
+			});
+			try{
+				export();
+			}finally{
+				db.setProgress(null);
+			}
+			return null;
+		}
+		protected void process(List chunks){
+			showStatus("Exporting " + page + ": " + chunks.get(chunks.size() - 1));
+		}
+		protected void done(){
+			exportWorker = null;
+			try{
+				get();
+				showStatus("Exported " + page + " to " + targetDir);
+			}catch(ExecutionException eva){
+				showError(eva.getCause());
+			}catch(Exception eva){
+				showError(eva);
+			}
+		}
+	}
+
 	public Action menuAction = new AbstractAction() {
 		public void actionPerformed(ActionEvent e){
 			Action a;
@@ -168,12 +382,41 @@ public class RadiMain implements HyperlinkListener,
 		radiProperty = new Properties();
 		cssFile =  "radi.css";
 		oldExportDir = null;
+		fileListVersion = -1;
+		pageLoader = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "Page loader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		previewer = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "Previewer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		previewRenderer = new HtmlWikiRenderer();
+		previewKit = new HTMLEditorKit();
+		previewListener = new PreviewListener();
+		previewTimer = new Timer(PREVIEWDELAY, new ActionListener(){
+			public void actionPerformed(ActionEvent e){
+				startPreview();
+			}
+		});
+		previewTimer.setRepeats(false);
 		
 		/* 
 		 * configure UI elements
 		 */
 		eddi = (JEditorPane)swix.find("eddi");
 		eddi.addHyperlinkListener(this);
+		editSplit = (JSplitPane)swix.find("editsplit");
+		editSplit.setResizeWeight(.5);
+		preview = (JEditorPane)swix.find("preview");
+		preview.setContentType("text/html");
+		((DefaultCaret)preview.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
 
 		radiList = (JList)swix.find("zikilist");
 		radiList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
@@ -191,6 +434,7 @@ public class RadiMain implements HyperlinkListener,
 				try{
 					doSave();
 				}catch(Exception eva){}
+				db.flushIndex();
 			}
 		}
 		);
@@ -229,12 +473,25 @@ public class RadiMain implements HyperlinkListener,
 		if(radiProperty.getProperty("externalbrowser") == null){
 			radiProperty.setProperty("externalbrowser","false");
 		}
+		if(radiProperty.getProperty("exportthreads") == null){
+			radiProperty.setProperty("exportthreads",
+					Integer.toString(Runtime.getRuntime().availableProcessors()));
+		}
+		if(radiProperty.getProperty("scripttimeout") == null){
+			radiProperty.setProperty("scripttimeout",
+					Long.toString(RadiDatabase.SCRIPTTIMEOUT));
+		}
+		if(radiProperty.getProperty("scriptoutput") == null){
+			radiProperty.setProperty("scriptoutput","0");
+		}
 		String projectDir = radiProperty.getProperty("radidir");
 		if(projectDir != null){
 			db = new RadiDatabase(projectDir);
 		} else {
 			db = new RadiDatabase();
 		}
+		prefetcher = new Prefetcher(db);
+		applyProperties();
 		setCurrentDirectory(db.getDatabase());
 	}
 	/**
@@ -249,6 +506,7 @@ public class RadiMain implements HyperlinkListener,
 				try{
 					doSave();
 				}catch(Exception erika){}
+				db.flushIndex();
 				System.exit(0);
 				return;
 			} else if(command.compareTo("Edit") == 0){
@@ -284,6 +542,12 @@ public class RadiMain implements HyperlinkListener,
 			} else if(command.compareTo("Show HTML") == 0){
 				showHtml();
 				return;
+			} else if(command.compareTo("Show Script Statistics") == 0){
+				showScriptStatistics();
+				return;
+			} else if(command.compareTo("Show Links") == 0){
+				showLinks();
+				return;
 			} else if(command.compareTo("Export RADI") == 0){
 				exportRadi();
 				return;
@@ -342,15 +606,21 @@ public class RadiMain implements HyperlinkListener,
 				return;
 			}
 		}catch(Exception eva){
-			JOptionPane.showMessageDialog(swix.getAppFrame(),
-					"Exception: " + eva.getMessage() + " occurred","Radi Exception",
-					JOptionPane.ERROR_MESSAGE);
-			eva.printStackTrace();
-			System.out.println("Exception " + eva.getMessage() + " Occured while accessing "
-					+ currentFile);
-			eva.printStackTrace();
+			showError(eva);
 		}
 	}
+	/**
+	 * tell the user about an exception
+	 * @param eva The exception
+	 */
+	private void showError(Throwable eva){
+		JOptionPane.showMessageDialog(swix.getAppFrame(),
+				"Exception: " + eva.getMessage() + " occurred","Radi Exception",
+				JOptionPane.ERROR_MESSAGE);
+		System.out.println("Exception " + eva.getMessage() + " Occured while accessing "
+				+ currentFile);
+		eva.printStackTrace();
+	}
 	/**
 	 * change the state of the external browser flag.
 	 */
@@ -415,22 +685,89 @@ public class RadiMain implements HyperlinkListener,
 		pd.setVisible(true);
 		saveRadiDirProperty();
 		syncExternalBrowser();
+		applyProperties();
+	}
+	/**
+	 * pass those properties on to the database which tune it
+	 */
+	private void applyProperties(){
+		try{
+			db.setExportThreads(Integer.parseInt(
+					radiProperty.getProperty("exportthreads").trim()));
+		}catch(Exception eva){}
+		try{
+			db.setScriptLimits(Long.parseLong(
+					radiProperty.getProperty("scripttimeout").trim()),
+					Integer.parseInt(radiProperty.getProperty("scriptoutput").trim()));
+		}catch(Exception eva){}
 	}
 	/**
 	 * showHtml shows the HTML as rendered by Textile. This is useful for debugging the
 	 * renderer and the markup
 	 */
 	private void showHtml() throws IOException{
+		String content;
+		boolean displayed = !editing && pageWorker == null;
+		
 		if(editing){
 			doSave();
 		}
+		cancelPageWorker();
 		urlStack.push(currentUrl);
-		String content = eddi.getText();
+		if(displayed){
+			content = eddi.getText();
+		} else {
+			/*
+			 * the page is still being rendered for display
+			 */
+			content = makePageHtml(currentFile);
+		}
 		eddi.setEditorKit(null);
 		eddi.setContentType("text/plain");
 		eddi.setEditable(false);
 		eddi.setText(content);
 	}
+	/**
+	 * render a page as a complete html document for display
+	 * @param file The page file name
+	 * @return The html text
+	 */
+	private String makePageHtml(String file){
+		StringBuffer htmlText = new StringBuffer();
+		htmlText.append(HtmlHeader.makeHtml3Header(file,db.getDatabase(),cssFile));
+		htmlText.append(db.getWikiHtml(file));
+		htmlText.append("</body></html>\n");
+		return htmlText.toString();
+	}
+	/**
+	 * show how much time the JXP scripts in the pages took
+	 */
+	private void showScriptStatistics() throws IOException{
+		if(editing){
+			doSave();
+		}
+		cancelPageWorker();
+		urlStack.push(currentUrl);
+		eddi.setEditorKit(null);
+		eddi.setContentType("text/plain");
+		eddi.setEditable(false);
+		eddi.setText(db.getScriptStatistics());
+	}
+	/**
+	 * show the pages the current page links to, the pages linking to it, 
+	 * orphan pages and links to missing pages 
+	 */
+	private void showLinks() throws IOException{
+		if(editing){
+			doSave();
+		}
+		cancelPageWorker();
+		urlStack.push(currentUrl);
+		eddi.setEditorKit(null);
+		eddi.setContentType("text/plain");
+		eddi.setEditable(false);
+		eddi.setText(db.getLinkReport(currentFile));
+	}
 	/**
 	 * handle deletion of a Radi File
 	 */
@@ -517,8 +854,12 @@ public class RadiMain implements HyperlinkListener,
 	private void exportRadi() throws IOException{
 		String targetDir = openExportDir();
 		if(targetDir != null){
-			db.exportRadi(targetDir,currentFile,cssFile);
-			checkCSS(targetDir);
+			startExport(new ExportWorker(targetDir){
+				protected void export() throws IOException{
+					db.exportRadi(targetDir,page,cssFile);
+					checkCSS(targetDir);
+				}
+			});
 		}
 	}
 	/**
@@ -527,8 +868,12 @@ public class RadiMain implements HyperlinkListener,
 	private void exportMarkdown() throws IOException{
 		String targetDir = openExportDir();
 		if(targetDir != null){
-			db.exportMarkdown(targetDir,currentFile,cssFile);
-			checkCSS(targetDir);
+			startExport(new ExportWorker(targetDir){
+				protected void export() throws IOException{
+					db.exportMarkdown(targetDir,page,cssFile);
+					checkCSS(targetDir);
+				}
+			});
 		}
 	}
 	/**
@@ -537,8 +882,12 @@ public class RadiMain implements HyperlinkListener,
 	private void exportHtml() throws IOException{
 		String targetDir = openExportDir();
 		if(targetDir != null){
-			db.exportHtml(targetDir,currentFile,cssFile);
-			checkCSS(targetDir);
+			startExport(new ExportWorker(targetDir){
+				protected void export() throws IOException{
+					db.exportHtml(targetDir,page,cssFile);
+					checkCSS(targetDir);
+				}
+			});
 		}
 	}
 	/**
@@ -547,8 +896,12 @@ public class RadiMain implements HyperlinkListener,
 	private void exportXHtml() throws IOException{
 		String targetDir = openExportDir();
 		if(targetDir != null){
-			db.exportXHtml(targetDir,currentFile,cssFile);
-			checkCSS(targetDir);
+			startExport(new ExportWorker(targetDir){
+				protected void export() throws IOException{
+					db.exportXHtml(targetDir,page,cssFile);
+					checkCSS(targetDir);
+				}
+			});
 		}
 	}
 	/**
@@ -557,7 +910,11 @@ public class RadiMain implements HyperlinkListener,
 	private void exportS5() throws IOException{
 		String targetDir = openExportDir();
 		if(targetDir != null){
-			db.exportS5(targetDir,currentFile,cssFile);
+			startExport(new ExportWorker(targetDir){
+				protected void export() throws IOException{
+					db.exportS5(targetDir,page,cssFile);
+				}
+			});
 		}
 	}
 	/**
@@ -565,12 +922,31 @@ public class RadiMain implements HyperlinkListener,
 	 * @param format RadiDatabase.BOOK, ARTICLE or PROSPER for the 
 	 * various output formats
 	 */
-	private void exportLatex(int format) throws IOException{
+	private void exportLatex(final int format) throws IOException{
 		String targetDir = openExportDir();
 		if(targetDir != null){
-			db.exportLatex(targetDir,currentFile,format);
+			startExport(new ExportWorker(targetDir){
+				protected void export() throws IOException{
+					db.exportLatex(targetDir,page,format);
+				}
+			});
 		}
 	}
+	/**
+	 * start an export in the background. Only one export runs at a time.
+	 * @param worker The export to run
+	 */
+	private void startExport(ExportWorker worker){
+		if(exportWorker != null){
+			JOptionPane.showMessageDialog(swix.getAppFrame(),
+					"Please wait until the running export has finished",
+					"Export Running", JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		exportWorker = worker;
+		showStatus("Exporting " + worker.page + " to " + worker.targetDir);
+		worker.execute();
+	}
 	/**
 	 * doSave saves the currently edited file and displays it
 	 */
@@ -580,6 +956,7 @@ public class RadiMain implements HyperlinkListener,
 		}
 		String content = eddi.getText();
 		db.saveWikiData(currentFile,content);
+		stopPreview();
 		editing = false;
 		eddi.setEditable(false);
 		loadRadiFile(currentFile);
@@ -593,6 +970,7 @@ public class RadiMain implements HyperlinkListener,
 		if(!editing){
 			return;
 		}
+		stopPreview();
 		editing = false;
 		eddi.setEditable(false);
 		loadRadiFile(currentFile);
@@ -608,6 +986,7 @@ public class RadiMain implements HyperlinkListener,
 			return;
 		}
 		
+		cancelPageWorker();
 		content = db.getWikiEditSource(currentFile);
 		eddi.setContentType("text/plain");
 //		eddi.setFont(eddi.getFont().deriveFont(20));
@@ -618,6 +997,38 @@ public class RadiMain implements HyperlinkListener,
 		editing = true;
 		eddi.setCaretPosition(0);
 		eddi.requestFocus();
+		eddi.getDocument().addDocumentListener(previewListener);
+		preview.getParent().getParent().setVisible(true);
+		editSplit.setDividerLocation(.5);
+		startPreview();
+	}
+	/**
+	 * render the text being edited into the preview in the background. 
+	 * A preview still waiting to be rendered is cancelled.
+	 */
+	private void startPreview(){
+		if(!editing){
+			return;
+		}
+		if(previewWorker != null){
+			previewWorker.cancel(false);
+		}
+		previewWorker = new PreviewWorker(currentFile, eddi.getText());
+		previewer.execute(previewWorker);
+	}
+	/**
+	 * stop previewing and hide the preview, as editing ends
+	 */
+	private void stopPreview(){
+		previewTimer.stop();
+		eddi.getDocument().removeDocumentListener(previewListener);
+		previewTimer.setInitialDelay(PREVIEWDELAY);
+		if(previewWorker != null){
+			previewWorker.cancel(false);
+			previewWorker = null;
+		}
+		preview.getParent().getParent().setVisible(false);
+		preview.setText("");
 	}
 	/**
 	 * edit a file externally
@@ -634,10 +1045,12 @@ public class RadiMain implements HyperlinkListener,
 	}
 	/**
 	 * loads the named Radi file or replaces it through empty data when not there.
+	 * The page is rendered in the background and displayed when ready, unless
+	 * another page has been requested by then.
 	 * @param filename The filename to load
 	 */
-	private void loadRadiFile(String filename) throws IOException{
-		String content, anchor;
+	private void loadRadiFile(String filename){
+		String anchor;
 		int idx;
 		
 		idx = filename.indexOf("#");
@@ -648,33 +1061,44 @@ public class RadiMain implements HyperlinkListener,
 			currentFile = filename.substring(0,idx);
 			anchor = filename.substring(idx,filename.length());
 		}
-			
-		String htmlContent = db.getWikiHtml(currentFile);
-		StringBuffer htmlText = new StringBuffer();
-		htmlText.append(HtmlHeader.makeHtml3Header(currentFile,db.getDatabase(),cssFile));
-		htmlText.append(htmlContent);
-		htmlText.append("</body></html>\n");
-		eddi.setContentType("text/html");
-		eddi.setEditable(false);
-		eddi.setText(htmlText.toString());
-		eddi.requestFocus();
-//		System.out.println(htmlText.toString());
-		if(anchor != null){
-			eddi.scrollToReference(anchor);
-		} else {
-			eddi.setCaretPosition(0);
-		}
 		currentUrl = "radi://" + currentFile;
-		setStatus(currentFile);
+		showStatus("Loading: " + currentFile);
+		startPageWorker(new PageWorker(currentFile, anchor));
+	}
+	/**
+	 * start preparing something for display in the background. Whatever was
+	 * requested before is cancelled.
+	 * @param worker The worker preparing the display
+	 */
+	private void startPageWorker(SwingWorker worker){
+		cancelPageWorker();
+		pageWorker = worker;
+		pageLoader.execute(worker);
+	}
+	/**
+	 * cancel the page or search results being prepared, because the user
+	 * went elsewhere
+	 */
+	private void cancelPageWorker(){
+		prefetcher.cancel();
+		if(pageWorker != null){
+			pageWorker.cancel(false);
+			pageWorker = null;
+		}
 	}
 	/**
 	 * load the list of all wiki files
 	 * @throws IOException
 	 */
 	private void  loadRadiFileList() throws IOException{
+		long version = db.getWikiFileListVersion();
+		if(version == fileListVersion){
+			return;
+		}
 		Vector v = db.getWikiFileList();
 	    radiList.setListData(v);
 		radiList.revalidate();
+		fileListVersion = version;
 	}
 	/**
 	 * search the Radieschen database ...
@@ -683,15 +1107,8 @@ public class RadiMain implements HyperlinkListener,
 		JTextField jt = (JTextField)swix.find("searchdata");
 		String pattern = jt.getText();
 		if(pattern != null && pattern.length() > 0){
-			String htmlResult = db.searchDatabase(pattern);
-			urlStack.push(currentUrl);
-			eddi.setEditorKit(null);
-			eddi.setEditable(false);
-			eddi.setContentType("text/html");
-			eddi.setText(htmlResult);
-			eddi.revalidate();
-			eddi.requestFocus();
-			setStatus("Search Results for " + pattern);
+			showStatus("Searching for " + pattern);
+			startPageWorker(new SearchWorker(pattern));
 		}
 	}
 	/**
@@ -702,6 +1119,7 @@ public class RadiMain implements HyperlinkListener,
 		if(editing){
 			doSave();
 		}
+		cancelPageWorker();
 		urlStack.push(currentUrl);
 		eddi.setEditorKit(null);
 		eddi.setEditable(false);
@@ -720,6 +1138,7 @@ public class RadiMain implements HyperlinkListener,
 		if(editing){
 			doSave();
 		}
+		cancelPageWorker();
 		eddi.setPage(ulli);
 		eddi.setEditable(false);
 		eddi.revalidate();
@@ -853,14 +1272,8 @@ public class RadiMain implements HyperlinkListener,
 					return;
 				}
 			}
-			try{
-				loadRadiFile(RadiFile);
-				urlStack.push(savedRadi);
-			}catch(IOException eva){
-				try{
-					loadRadiFile(savedRadi);
-				}catch(Exception erika){}
-			}
+			loadRadiFile(RadiFile);
+			urlStack.push(savedRadi);
 		}
 	}
 	/**
@@ -885,6 +1298,7 @@ public class RadiMain implements HyperlinkListener,
 			doSave();
 		}
 		urlStack.clear();
+		cancelPageWorker();
 		db.setDatabase(dirName);
 		loadRadiFile("Start.radi");
 		loadRadiFileList();
@@ -924,8 +1338,15 @@ public class RadiMain implements HyperlinkListener,
 	 * @param url The URL of the item to display
 	 */
 	private void setStatus(String url){
+		showStatus("Displaying: " +url);
+	}
+	/**
+	 * set the status label text
+	 * @param text The text to show
+	 */
+	private void showStatus(String text){
 		JLabel stat = (JLabel)swix.find("status");
-		stat.setText("Displaying: " +url);
+		stat.setText(text);
 	}
     /**
      * Resets the undo manager.
@@ -0,0 +1,181 @@
+/**
+ * This is a bounded LRU cache for rendered pages. Entries are keyed by the
+ * page file name and are only valid as long as the modification time and
+ * the size of the page file match the values recorded when the page was
+ * rendered.
+ *
+ * Pages containing JXP scripts may depend on anything the script looks at.
+ * Such pages are not cached at all unless a time to live has been configured
+ * for them through setScriptTTL().
+ *
+ * The cache is bounded both by the number of pages and by the total number
+ * of characters held.
+ *
+ * copyright: GPL
+ */
+package radieschen;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RenderCache {
+	public final static int DEFAULTPAGES = 200;
+	public final static long DEFAULTCHARS = 8*1024*1024;
+
+	protected int maxPages;
+	protected long maxChars, totalChars;
+	protected long scriptTTL;
+	protected long hits, misses;
+	private LinkedHashMap entries;
+
+	private static class Entry {
+		String html;
+		long lastModified, length;
+		long expires;
+	}
+
+	/**
+	 * constructor with default limits
+	 */
+	public RenderCache(){
+		this(DEFAULTPAGES, DEFAULTCHARS);
+	}
+	/**
+	 * constructor
+	 * @param maxPages The maximum number of pages to hold
+	 * @param maxChars The maximum number of characters to hold
+	 */
+	public RenderCache(int maxPages, long maxChars){
+		this.maxPages = maxPages;
+		this.maxChars = maxChars;
+		scriptTTL = 0;
+		totalChars = 0;
+		hits = misses = 0;
+		entries = new LinkedHashMap(16, .75f, true);
+	}
+	/**
+	 * get a page from the cache
+	 * @param name The page file name
+	 * @param lastModified The current modification time of the page file
+	 * @param length The current size of the page file
+	 * @return The rendered page or null when not cached or outdated
+	 */
+	public synchronized String get(String name, long lastModified, long length){
+		Entry e = (Entry)entries.get(name);
+		if(e != null){
+			if(e.lastModified == lastModified && e.length == length &&
+					(e.expires == 0 || e.expires > System.currentTimeMillis())){
+				hits++;
+				return e.html;
+			}
+			remove(name);
+		}
+		misses++;
+		return null;
+	}
+	/**
+	 * add a rendered page to the cache
+	 * @param name The page file name
+	 * @param lastModified The modification time of the page file before rendering
+	 * @param length The size of the page file before rendering
+	 * @param scripted true when the page contains JXP scripts
+	 * @param html The rendered page
+	 */
+	public synchronized void put(String name, long lastModified, long length,
+			boolean scripted, String html){
+		if(scripted && scriptTTL <= 0){
+			return;
+		}
+		if(html.length() > maxChars){
+			return;
+		}
+		remove(name);
+		Entry e = new Entry();
+		e.html = html;
+		e.lastModified = lastModified;
+		e.length = length;
+		if(scripted){
+			e.expires = System.currentTimeMillis() + scriptTTL;
+		} else {
+			e.expires = 0;
+		}
+		entries.put(name, e);
+		totalChars += html.length();
+		trim();
+	}
+	/**
+	 * check if a page is in the cache, without touching the statistics
+	 * or the LRU order
+	 * @param name The page file name
+	 * @return true when the page is cached
+	 */
+	public synchronized boolean contains(String name){
+		return entries.containsKey(name);
+	}
+	/**
+	 * check if an up to date rendering of a page is in the cache, without 
+	 * touching the statistics
+	 * @param name The page file name
+	 * @param lastModified The current modification time of the page file
+	 * @param length The current size of the page file
+	 * @return true when get() would return the page
+	 */
+	public synchronized boolean isCurrent(String name, long lastModified, long length){
+		Entry e = (Entry)entries.get(name);
+		return e != null && e.lastModified == lastModified && e.length == length &&
+			(e.expires == 0 || e.expires > System.currentTimeMillis());
+	}
+	/**
+	 * remove a page from the cache
+	 * @param name The page file name
+	 */
+	public synchronized void remove(String name){
+		Entry e = (Entry)entries.remove(name);
+		if(e != null){
+			totalChars -= e.html.length();
+		}
+	}
+	/**
+	 * empty the cache
+	 */
+	public synchronized void clear(){
+		entries.clear();
+		totalChars = 0;
+	}
+	/**
+	 * set the time to live for pages containing JXP scripts
+	 * @param ttl The time to live in milliseconds, 0 disables caching of
+	 * such pages.
+	 */
+	public synchronized void setScriptTTL(long ttl){
+		scriptTTL = ttl;
+	}
+	public synchronized long getScriptTTL(){
+		return scriptTTL;
+	}
+	public synchronized long getHits(){
+		return hits;
+	}
+	public synchronized long getMisses(){
+		return misses;
+	}
+	public synchronized int size(){
+		return entries.size();
+	}
+	public synchronized String toString(){
+		return "RenderCache: " + entries.size() + " pages, " + totalChars +
+			" chars, " + hits + " hits, " + misses + " misses";
+	}
+	/**
+	 * drop least recently used pages until we are within limits again
+	 */
+	private void trim(){
+		Iterator it = entries.entrySet().iterator();
+		while(it.hasNext() && (entries.size() > maxPages || totalChars > maxChars)){
+			Entry e = (Entry)((Map.Entry)it.next()).getValue();
+			totalChars -= e.html.length();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * This copies the local files referenced by exported pages, such as images,
+ * from the database directory into the export directory. Each file is copied
+ * only once per export however many pages refer to it, and not at all when
+ * the copy in the export directory has the same size and modification time.
+ *
+ * Copies are made as they are, byte for byte, by background threads, so
+ * that rendering does not wait for them. finish() waits until all copies
+ * are done.
+ *
+ * copyright: GPL
+ */
+package radieschen.wiki;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class AssetCopier {
+	/**
+	 * the number of threads copying files
+	 */
+	public final static int THREADS = 2;
+
+	private File dbDir, targetDir;
+	private HashSet seen;
+	private ThreadPoolExecutor pool;
+	private int copied, upToDate;
+	private Vector failed;
+
+	/**
+	 * constructor
+	 * @param dbDir The database directory to copy from
+	 * @param targetDir The export directory to copy to
+	 */
+	public AssetCopier(String dbDir, String targetDir){
+		this.dbDir = new File(dbDir);
+		this.targetDir = new File(targetDir);
+		seen = new HashSet();
+		failed = new Vector();
+		copied = 0;
+		upToDate = 0;
+	}
+	/**
+	 * queue a file for copying, unless it has been queued before
+	 * @param file The name of the file relative to the database directory
+	 * @return true when the file has been queued
+	 */
+	public synchronized boolean copy(final String file){
+		final File in = new File(dbDir, file);
+		final File out = new File(targetDir, file);
+
+		if(!seen.add(in.toPath().normalize())){
+			return false;
+		}
+		if(pool == null){
+			pool = new ThreadPoolExecutor(THREADS, THREADS, 1, TimeUnit.SECONDS,
+					new LinkedBlockingQueue(), new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "Asset copier");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+		}
+		pool.execute(new Runnable(){
+			public void run(){
+				copyFile(file, in, out);
+			}
+		});
+		return true;
+	}
+	/**
+	 * wait until all queued files have been copied
+	 * @return A report on the files copied
+	 */
+	public String finish(){
+		ThreadPoolExecutor p;
+
+		synchronized(this){
+			p = pool;
+			pool = null;
+		}
+		if(p != null){
+			p.shutdown();
+			try{
+				p.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}catch(InterruptedException eva){
+				Thread.currentThread().interrupt();
+			}
+		}
+		return toString();
+	}
+	/**
+	 * @return The number of files copied
+	 */
+	public synchronized int getCopied(){
+		return copied;
+	}
+	/**
+	 * @return The number of files which were already up to date
+	 */
+	public synchronized int getUpToDate(){
+		return upToDate;
+	}
+	/**
+	 * @return The files which could not be copied, with the reason
+	 */
+	public synchronized Vector getFailed(){
+		return new Vector(failed);
+	}
+	public synchronized String toString(){
+		StringBuffer stb = new StringBuffer();
+
+		stb.append("Copied ");
+		stb.append(copied);
+		stb.append(" files, ");
+		stb.append(upToDate);
+		stb.append(" up to date");
+		for(int i = 0; i < failed.size(); i++){
+			stb.append("\nFailed to copy ");
+			stb.append(failed.get(i));
+		}
+		return stb.toString();
+	}
+	private void copyFile(String file, File in, File out){
+		try{
+			if(!in.isFile()){
+				throw new IOException("file not found");
+			}
+			if(out.length() == in.length() && out.lastModified() == in.lastModified()
+					&& out.isFile()){
+				synchronized(this){
+					upToDate++;
+				}
+				return;
+			}
+			File dir = out.getParentFile();
+			if(dir != null && !dir.isDirectory()){
+				dir.mkdirs();
+			}
+			Files.copy(in.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.COPY_ATTRIBUTES);
+			synchronized(this){
+				copied++;
+			}
+		}catch(Exception eva){
+			synchronized(this){
+				failed.add(file + ": " + eva.getMessage());
+			}
+		}
+	}
+}
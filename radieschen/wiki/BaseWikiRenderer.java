@@ -8,15 +8,30 @@
  * License: GPL
  */  
 package radieschen.wiki;
-import java.util.Properties;
-import java.net.URL;
+import java.util.Iterator;
+import java.util.Map;
 import java.io.*;
-import org.apache.commons.io.IOUtils;
+
+import radieschen.RadiDatabase;
 
 public class BaseWikiRenderer {
-	protected Properties tagMap;
+	/**
+	 * when streaming, result is written out whenever it grows beyond this size 
+	 */
+	protected final static int FLUSHSIZE = 8192;
+	protected TagTemplates tagMap;
 	protected StringBuffer result;
-	protected Properties tokenToName;
+	/**
+	 * when true, runs of plain characters reach the renderer as single 
+	 * TEXT tokens
+	 */
+	protected boolean textSpans;
+	/**
+	 * copies the local files referenced while exporting
+	 */
+	protected AssetCopier assetCopier;
+	private Writer sink;
+	private char flushBuffer[];
 	
 	/*
 	 * constructor
@@ -25,14 +40,18 @@ public class BaseWikiRenderer {
 	 * @param tagpath The path to the property file with the tag mappings 
 	 */
 	public BaseWikiRenderer(String tagpath) throws IOException{
-		tagMap = new Properties();
-		URL ulli = BaseWikiRenderer.class.getResource(tagpath);
-		if(ulli == null){
-			throw new IOException("Tag property file not found");
-		}
-		tagMap.load(ulli.openStream());
-		tokenToName = new Properties();
-		initTokenToName();
+		tagMap = TagTemplates.get(tagpath);
+		textSpans = true;
+	}
+	/**
+	 * create the token pipeline for rendering wiki source with this renderer
+	 * @param source The wiki source text
+	 * @return A TokenProducer delivering the tokens of source
+	 */
+	public TokenProducer createTokenProducer(CharSequence source){
+		JFlexWikiLexer lexer = new JFlexWikiLexer(new CharSequenceReader(source), true);
+		lexer.setTextSpans(textSpans);
+		return new StateMachineTokenFilter(lexer);
 	}
 	/**
 	 * The main entry point: the render function
@@ -40,15 +59,43 @@ public class BaseWikiRenderer {
 	 * @return A rendered String
 	 */
 	public  String render(TokenProducer input) throws IOException{
-		WikiToken tok;
-		String tagName, tagValue;
-		int length;
-
+		sink = null;
+		result = null;
+		result = new StringBuffer();
+		renderTokens(input);
+		return result.toString();
+	}
+	/**
+	 * Render into a Writer. The output is written in blocks while rendering 
+	 * and is never held in memory as a whole. 
+	 * @param input The TokenProducer from which to render things
+	 * @param out The Writer to write the rendered text to
+	 * @throws IOException when things go wrong
+	 */
+	public void render(TokenProducer input, Writer out) throws IOException{
+		sink = out;
 		result = null;
 		result = new StringBuffer();
+		try{
+			renderTokens(input);
+			flushResult(true);
+		}finally{
+			sink = null;
+		}
+	}
+	/**
+	 * Render all tokens from input into result
+	 * @param input The TokenProducer from which to render things
+	 * @throws IOException when things go wrong
+	 */
+	protected void renderTokens(TokenProducer input) throws IOException{
+		WikiToken tok;
+		String tagValue;
+		int length;
 
 		tok = input.nextToken();
 		while(tok != null){
+			flushResult(false);
 			//System.out.println("Rendering token: " + tok.getType() + ", text = " + tok.getText());
 			if(tokenHandled(tok, input)){
 				tok = input.nextToken();
@@ -56,9 +103,10 @@ public class BaseWikiRenderer {
 			}
 			switch(tok.getType()){
 			case WikiToken.CHAR:
+			case WikiToken.TEXT:
 			case WikiToken.STARTCHAR:
 			case WikiToken.NL:	
-				processChar(tok.getText());
+				processChars(tok, 0, tok.length());
 				break;
 			case WikiToken.IGNORE:
 				tok = input.nextToken();
@@ -73,8 +121,8 @@ public class BaseWikiRenderer {
 				processEndHeader(tok.getText());
 				break;
 			case WikiToken.ESCAPE:
-				length = tok.getText().length();
-				processChar(tok.getText().substring(length-1,length));
+				length = tok.length();
+				processChars(tok, length-1, length);
 				break;
 			case WikiToken.IMAGE:
 				processImage(tok.getText());
@@ -98,11 +146,7 @@ public class BaseWikiRenderer {
 				processSymbol(tok.getText());
 				break;
 			default:
-				tagName = (String)tokenToName.get(new Integer(tok.getType()));
-				if(tagName == null){
-					throw new IOException("Bad token maping");
-				}
-				tagValue = tagMap.getProperty(tagName);
+				tagValue = tagMap.getTag(tok.getType());
 				if(tagValue != null){
 					result.append(tagValue);
 				}
@@ -110,7 +154,38 @@ public class BaseWikiRenderer {
 			}
 			tok = input.nextToken();
 		}
-		return result.toString();
+	}
+	/**
+	 * When streaming, write out what has been rendered so far. 
+	 * @param force When false, only write when result has grown large 
+	 * and canFlush() agrees.
+	 * @throws IOException when the Writer fails
+	 */
+	protected void flushResult(boolean force) throws IOException{
+		int length;
+		
+		if(sink == null){
+			return;
+		}
+		length = result.length();
+		if(length == 0 || (!force && (length < FLUSHSIZE || !canFlush()))){
+			return;
+		}
+		if(flushBuffer == null || flushBuffer.length < length){
+			flushBuffer = new char[Math.max(length,FLUSHSIZE*2)];
+		}
+		result.getChars(0, length, flushBuffer, 0);
+		sink.write(flushBuffer, 0, length);
+		result.setLength(0);
+	}
+	/**
+	 * Derived classes which need to look back into or replace result 
+	 * override this in order to hold off writing the result while they 
+	 * are doing so.
+	 * @return true when result may be written out now
+	 */
+	protected boolean canFlush(){
+		return true;
 	}
 	
 	/**
@@ -130,46 +205,19 @@ public class BaseWikiRenderer {
 	protected void processSymbol(String txt){
 		result.append(txt);
 	}
-	/**
-	 * replace the column count and add the appropriate value.
-	 * @param tag
-	 * @param text
-	 */
-	private void insertMulti(String tag, String text){
-		int col = text.length() - 1;
-		result.append(tag.replaceFirst("%d", Integer.toString(col)));
-	}
 	/**
 	 * process a table entry spanning multicolumns, being the first column
 	 * @param text The token text, needed to count the |
 	 */
 	protected void processMultiStart(String text)throws IOException{
-		String tagName, tagValue;
-		
-		tagName = (String)tokenToName.get(new Integer(WikiToken.MULTIROW));
-		if(tagName == null){
-			throw new IOException("Bad token maping");
-		}
-		tagValue = tagMap.getProperty(tagName);
-		if(tagValue != null){
-			insertMulti(tagValue,text);
-		}
+		tagMap.appendMulti(result, WikiToken.MULTIROW, text.length() - 1);
 	}
 	/**
 	 * process a table entry spanning multicolumns
 	 * @param text The token text, needed to count the |
 	 */
 	protected void processMultiSep(String text)throws IOException{
-		String tagName, tagValue;
-	
-		tagName = (String)tokenToName.get(new Integer(WikiToken.MULTISEP));
-		if(tagName == null){
-			throw new IOException("Bad token maping");
-		}
-		tagValue = tagMap.getProperty(tagName);
-		if(tagValue != null){
-			insertMulti(tagValue,text);
-		}
+		tagMap.appendMulti(result, WikiToken.MULTISEP, text.length() - 1);
 	}
 	/**
 	 * process link data. This has to be overriden by special implementations
@@ -211,8 +259,8 @@ public class BaseWikiRenderer {
 		
 		result.append(tagMap.getProperty("startpre"));
 		length = txt.length();
-		for(i = 0; i  < length-1; i++){
-			processChar(txt.substring(i,i+1));
+		if(length > 1){
+			processChars(txt, 0, length-1);
 		}
 		result.append(tagMap.getProperty("endpre"));
 	}
@@ -295,68 +343,108 @@ public class BaseWikiRenderer {
 	protected void processChar(String txt){
 		result.append(txt);
 	}
+	/**
+	 * process character data. Renderers which encode characters override 
+	 * this in order to work on the characters directly: the default 
+	 * implementation creates a String for processChar().
+	 * @param txt The characters to process, usually a WikiToken
+	 * @param start The index of the first character to process
+	 * @param end The index after the last character to process
+	 */
+	protected void processChars(CharSequence txt, int start, int end){
+		processChar(txt.subSequence(start, end).toString());
+	}
+	/**
+	 * append characters to the result, replacing those which have an entry 
+	 * in table. Runs of characters which need no encoding are appended in 
+	 * one go.
+	 * @param txt The characters to process, usually a WikiToken
+	 * @param start The index of the first character to process
+	 * @param end The index after the last character to process
+	 * @param table The encoding table as made by makeCharTable()
+	 */
+	protected void appendEncoded(CharSequence txt, int start, int end, String table[]){
+		int i, run = start;
+		char c;
+
+		for(i = start; i < end; i++){
+			c = txt.charAt(i);
+			if(c < table.length && table[c] != null){
+				appendRun(txt, run, i);
+				result.append(table[c]);
+				run = i + 1;
+			}
+		}
+		appendRun(txt, run, end);
+	}
+	private void appendRun(CharSequence txt, int start, int end){
+		if(start >= end){
+			return;
+		}
+		if(txt instanceof WikiToken){
+			((WikiToken)txt).appendTo(result, start, end);
+		} else {
+			result.append(txt, start, end);
+		}
+	}
 	/**
 	 * This is a support function for copying images etc from the database
-	 * directory to the target directory of a possible export.
-	 * @param dbdir The database directory
-	 * @param targetDir The target directory
+	 * directory to the target directory of a possible export. The file is
+	 * copied in the background, finishCopies() waits for the copies.
+	 * Nothing is copied when the page is rendered outside of an export.
+	 * @param dbdir The database directory, null when not exporting
+	 * @param targetDir The target directory, null when not exporting
 	 * @param file The file to copy.
 	 */
 	protected void tryCopyLocalFile(String dbdir, String targetDir, String file){
-		if(file.startsWith("http") && file.startsWith("ftp")){
+		if(dbdir == null || targetDir == null){
 			return;
 		}
-		try{
-			File in = new File(dbdir + File.separatorChar + file);
-			File out = new File(targetDir + File.separatorChar + file);
-			FileWriter fw = new FileWriter(out);
-			IOUtils.copy(new FileReader(in), fw);
-			fw.close();
-		}catch(Exception eva){}
+		if(file.startsWith("http") || file.startsWith("ftp")){
+			return;
+		}
+		if(assetCopier == null){
+			assetCopier = new AssetCopier(dbdir, targetDir);
+		}
+		assetCopier.copy(file);
 	}
 	/**
-	 * this method initializes a map which maps integer token codes to key names
-	 * in the properties file
+	 * wait until the local files of an export have been copied and report
+	 * on them to the progress stream of the database
+	 * @param db The database exported from
 	 */
-	private void initTokenToName(){
-		tokenToName.put(new Integer(WikiToken.ENDBOLD),"endbold");
-		tokenToName.put(new Integer(WikiToken.ENDITAL),"endital");
-		tokenToName.put(new Integer(WikiToken.ENDSUB),"endsub");
-		tokenToName.put(new Integer(WikiToken.ENDSUPER),"endsuper");
-		tokenToName.put(new Integer(WikiToken.OLITEMCLOSE),"endolitem");
-		tokenToName.put(new Integer(WikiToken.OLLIST),"startolitem");
-		tokenToName.put(new Integer(WikiToken.OLLISTCLOSE),"endol");
-		tokenToName.put(new Integer(WikiToken.OLLISTOPEN),"startol");
-		tokenToName.put(new Integer(WikiToken.PAREND),"parend");
-		tokenToName.put(new Integer(WikiToken.PAROPEN),"parstart");
-		tokenToName.put(new Integer(WikiToken.STARTBOLD),"startbold");
-		tokenToName.put(new Integer(WikiToken.STARTITAL),"startital");
-		tokenToName.put(new Integer(WikiToken.STARTSUB),"startsub");
-		tokenToName.put(new Integer(WikiToken.STARTSUPER),"startsuper");
-		tokenToName.put(new Integer(WikiToken.TABLECLOSE),"endtable");
-		tokenToName.put(new Integer(WikiToken.TABLEOPEN),"tablestart");
-		tokenToName.put(new Integer(WikiToken.TABLEROW),"tablerowstart");
-		tokenToName.put(new Integer(WikiToken.TABLEEND),"tablerowend");
-		tokenToName.put(new Integer(WikiToken.TABLESEP),"tablesep");
-		tokenToName.put(new Integer(WikiToken.ULITEMCLOSE),"endulitem");
-		tokenToName.put(new Integer(WikiToken.ULLIST),"startulitem");
-		tokenToName.put(new Integer(WikiToken.ULLISTCLOSE),"endul");
-		tokenToName.put(new Integer(WikiToken.ULLISTOPEN),"startul");
-		tokenToName.put(new Integer(WikiToken.DEFLISTCLOSE),"enddef");
-		tokenToName.put(new Integer(WikiToken.DEFLISTOPEN),"startdef");
-		tokenToName.put(new Integer(WikiToken.DEFITEMCLOSE),"defitemclose");
-		tokenToName.put(new Integer(WikiToken.DEFDATACLOSE),"defdataclose");
-		tokenToName.put(new Integer(WikiToken.DEFLIST),"defdata");
-		tokenToName.put(new Integer(WikiToken.RULE),"rule");
-		tokenToName.put(new Integer(WikiToken.STRONGRULE),"strongrule");
-		tokenToName.put(new Integer(WikiToken.LINEBREAK),"linebreak");
-		tokenToName.put(new Integer(WikiToken.STARTCENTER),"startcenter");
-		tokenToName.put(new Integer(WikiToken.ENDCENTER),"endcenter");
-		tokenToName.put(new Integer(WikiToken.STARTQUOTE),"startquote");
-		tokenToName.put(new Integer(WikiToken.ENDQUOTE),"endquote");
-		tokenToName.put(new Integer(WikiToken.ENDCOLOUR),"endcolour");
-		tokenToName.put(new Integer(WikiToken.MULTIROW),"tablerowmultistart");
-		tokenToName.put(new Integer(WikiToken.MULTISEP),"tablemultisep");
+	protected void finishCopies(RadiDatabase db){
+		if(assetCopier == null){
+			return;
+		}
+		db.reportProgress(assetCopier.finish());
+		assetCopier = null;
+	}
+	/**
+	 * turn a map of single character Strings to their encoding into a table 
+	 * indexed by the character
+	 * @param charMap The map to convert
+	 * @return A table holding the encoding or null for each character
+	 */
+	protected static String[] makeCharTable(Map charMap){
+		String key, table[];
+		int size = 0;
 		
+		Iterator it = charMap.keySet().iterator();
+		while(it.hasNext()){
+			key = (String)it.next();
+			if(key.length() == 1){
+				size = Math.max(size, key.charAt(0) + 1);
+			}
+		}
+		table = new String[size];
+		it = charMap.keySet().iterator();
+		while(it.hasNext()){
+			key = (String)it.next();
+			if(key.length() == 1){
+				table[key.charAt(0)] = (String)charMap.get(key);
+			}
+		}
+		return table;
 	}
 }
@@ -5,12 +5,16 @@
  *  Mark Koennecke, January 2009
  */
 package radieschen.wiki;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringReader;
-import java.io.FileInputStream;
+import java.io.Writer;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.FilenameUtils;
 
@@ -37,15 +41,13 @@ public class BeamerWikiRenderer extends LatexBaseWikiRenderer {
 	 */
 	public void export(String page, String targetDir, RadiDatabase db, 
 			String cssFile) throws IOException{
-		String renderedPage;
-		String pageData;
+		CharSequence pageData;
 		String currentPage;
-		StringBuffer htmlText;
 		String filename, templateFile;
+		File slideFile;
 		
-		toConvert.clear();
-		converted.clear();
-		toConvert.addLast(page);
+		pages.clear();
+		pages.add(page);
 		this.targetDir = targetDir;
 		this.dbDir = db.getDatabase(); 
 		filename = targetDir + File.separatorChar + 
@@ -53,42 +55,61 @@ public class BeamerWikiRenderer extends LatexBaseWikiRenderer {
 		templateFile = dbDir + File.separatorChar + "beamer.template";
 		template = IOUtils.toString(new FileInputStream(templateFile));
 		
-		htmlText = null;
-		htmlText = new StringBuffer();
-		while(toConvert.size() > 0){
-			currentPage = (String)toConvert.getFirst();
-			converted.add(currentPage);
-			if(currentPage.indexOf(".radi") < 0){
-				currentPage += ".radi";
-			}
-			pageData = db.getWikiSource(currentPage);
-			firstHeader = true;
-			currentFile = FilenameUtils.removeExtension(currentPage);
-/*			
-			renderedPage = render(new HtmlWikiTokenFilter(new 
-						JFlexWikiLexer(new StringReader(pageData))));
+		/*
+		 * The slides are collected in a scratch file first: the title for 
+		 * the template is only known after all pages have been rendered.
+		 */
+		slideFile = File.createTempFile("slides", ".tmp", new File(targetDir));
+		try{
+			Writer slides = new BufferedWriter(new FileWriter(slideFile));
+			try{
+				while((currentPage = pages.next()) != null){
+					pageData = db.getWikiChars(currentPage);
+					firstHeader = true;
+					currentFile = FilenameUtils.removeExtension(currentPage);
+/*
+					render(new HtmlWikiTokenFilter(new 
+							JFlexWikiLexer(new StringReader(pageData))), slides);
 */
-			renderedPage = render(new StateMachineTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
-			htmlText.append(renderedPage);
-			if(slideOpen){
-				htmlText.append(tagMap.getProperty("endslide"));
-				slideOpen = false;
-			} 
-			toConvert.removeFirst();
+					render(createTokenProducer(pageData), slides);
+					if(slideOpen){
+						slides.write(tagMap.getProperty("endslide"));
+						slideOpen = false;
+					} 
+				}
+				if(slideOpen){
+					slides.write(tagMap.getProperty("endslide"));
+					slideOpen = false;
+				} 
+			}finally{
+				slides.close();
+			}
+	        int idx = template.indexOf(contentID);
+			PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+			try{
+				out.print(template.substring(0,idx));
+				Reader in = new FileReader(slideFile);
+				try{
+					IOUtils.copy(in, out);
+				}finally{
+					in.close();
+				}
+				out.print(template.substring(idx +contentID.length(), template.length()));
+				out.println();
+			}finally{
+				out.close();
+			}
+		}finally{
+			slideFile.delete();
 		}
-		if(slideOpen){
-			htmlText.append(tagMap.getProperty("endslide"));
-			slideOpen = false;
-		} 
-        int idx = template.indexOf(contentID);
-        StringBuffer pres = new StringBuffer(template.substring(0,idx));
-        pres.append(htmlText);
-        pres.append(template.substring(idx +contentID.length(), template.length()));
-		PrintWriter out = new PrintWriter(new FileWriter(filename));
-		out.println(pres.toString());
-		out.close();
-		out = null;
+		finishCopies(db);
+	}
+	/**
+	 * Headers replace result while the title is collected, so a page is
+	 * only written out when it is complete.
+	 */
+	protected boolean canFlush(){
+		return false;
 	}
 	/**
 	 * start of header processing: count the =
@@ -0,0 +1,199 @@
+/*
+ * This renders wiki pages block by block and keeps the rendered blocks,
+ * so that after an edit only the blocks which changed are rendered again.
+ *
+ * A page is split before each line which follows a blank line. A block is
+ * rendered on its own, thus it may only end where the lexer has no
+ * character formatting or preformatted text open and the token filter is
+ * outside of any paragraph, list or table: there rendering the rest of the
+ * page starts from scratch as well. When a block does not end in such a
+ * state, the rest of the page is rendered in one go. The result is always
+ * the same as rendering the whole page at once.
+ *
+ * Blocks are looked up by their source text. The cache is bounded by the
+ * number of characters held and drops the least recently used blocks.
+ *
+ * copyright: GPL
+ */
+package radieschen.wiki;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class BlockRenderCache {
+	public final static long DEFAULTCHARS = 8*1024*1024;
+
+	private LinkedHashMap blocks;
+	private long maxChars, totalChars;
+	private long hits, misses;
+
+	private static class Block {
+		String html;
+		/*
+		 * true when the block ends in the initial state of lexer and filter
+		 */
+		boolean closed;
+	}
+	/**
+	 * watches the end of the input of a block for the state of lexer and
+	 * filter
+	 */
+	private static class BlockEnd implements TokenProducer {
+		JFlexWikiLexer lexer;
+		StateMachineTokenFilter filter;
+		boolean closed;
+
+		BlockEnd(JFlexWikiLexer lexer){
+			this.lexer = lexer;
+			closed = false;
+		}
+		public WikiToken nextToken() throws IOException{
+			WikiToken tok = lexer.nextToken();
+			if(tok == null){
+				closed = lexer.isAtBlockBoundary() && filter.isEmpty();
+			}
+			return tok;
+		}
+	}
+
+	/**
+	 * constructor with the default size
+	 */
+	public BlockRenderCache(){
+		this(DEFAULTCHARS);
+	}
+	/**
+	 * constructor
+	 * @param maxChars The maximum number of characters, source and rendered
+	 * text, to hold
+	 */
+	public BlockRenderCache(long maxChars){
+		this.maxChars = maxChars;
+		blocks = new LinkedHashMap(16, .75f, true);
+		totalChars = 0;
+		hits = misses = 0;
+	}
+	/**
+	 * render a page. The renderer must not carry any state from one
+	 * rendering to the next.
+	 * @param r The renderer to use
+	 * @param source The wiki source of the page
+	 * @return The rendered page
+	 * @throws IOException when the renderer fails
+	 */
+	public String render(BaseWikiRenderer r, CharSequence source) throws IOException{
+		StringBuffer html = new StringBuffer();
+		int start = 0, end, length = source.length();
+		String block;
+		Block b;
+
+		while(start < length){
+			end = nextBlock(source, start);
+			block = source.subSequence(start, end).toString();
+			b = get(block);
+			if(b == null){
+				b = renderBlock(r, block);
+				put(block, b);
+			}
+			if(!b.closed && end < length){
+				html.append(r.render(r.createTokenProducer(
+						source.subSequence(start, length))));
+				break;
+			}
+			html.append(b.html);
+			start = end;
+		}
+		return html.toString();
+	}
+	public synchronized long getHits(){
+		return hits;
+	}
+	public synchronized long getMisses(){
+		return misses;
+	}
+	public synchronized int size(){
+		return blocks.size();
+	}
+	/**
+	 * empty the cache
+	 */
+	public synchronized void clear(){
+		blocks.clear();
+		totalChars = 0;
+	}
+	public synchronized String toString(){
+		return "BlockRenderCache: " + blocks.size() + " blocks, " + totalChars +
+			" chars, " + hits + " hits, " + misses + " misses";
+	}
+	/**
+	 * find the end of a block
+	 * @param source The page source
+	 * @param start The start of the block, at the start of a line
+	 * @return The start of the first line after start which follows a
+	 * blank line, or the length of source
+	 */
+	static int nextBlock(CharSequence source, int start){
+		int i, line, length = source.length();
+		boolean blank, previousBlank = false;
+		char c;
+
+		i = start;
+		while(i < length){
+			line = i;
+			blank = true;
+			while(i < length && (c = source.charAt(i)) != '\n'){
+				if(c != ' ' && c != '\t' && c != '\r'){
+					blank = false;
+				}
+				i++;
+			}
+			if(!blank && previousBlank && line > start){
+				return line;
+			}
+			previousBlank = blank;
+			i++;
+		}
+		return length;
+	}
+	private Block renderBlock(BaseWikiRenderer r, String block) throws IOException{
+		JFlexWikiLexer lexer = new JFlexWikiLexer(new CharSequenceReader(block), true);
+		lexer.setTextSpans(r.textSpans);
+		BlockEnd blockEnd = new BlockEnd(lexer);
+		StateMachineTokenFilter filter = new StateMachineTokenFilter(blockEnd);
+		blockEnd.filter = filter;
+
+		Block b = new Block();
+		b.html = r.render(filter);
+		b.closed = blockEnd.closed;
+		return b;
+	}
+	private synchronized Block get(String block){
+		Block b = (Block)blocks.get(block);
+		if(b != null){
+			hits++;
+		} else {
+			misses++;
+		}
+		return b;
+	}
+	private synchronized void put(String block, Block b){
+		long size = block.length() + b.html.length();
+		if(size > maxChars){
+			return;
+		}
+		Block old = (Block)blocks.put(block, b);
+		if(old != null){
+			totalChars -= block.length() + old.html.length();
+		}
+		totalChars += size;
+		Iterator it = blocks.entrySet().iterator();
+		while(totalChars > maxChars && it.hasNext()){
+			Map.Entry oldest = (Map.Entry)it.next();
+			totalChars -= ((String)oldest.getKey()).length() +
+				((Block)oldest.getValue()).html.length();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * A Reader reading from a CharSequence, such as a page loaded into a
+ * CharBuffer. Unlike StringReader this needs no String and takes no lock.
+ * Characters are copied in bulk from Strings and from CharBuffers
+ * backed by an array.
+ *
+ * copyright: GPL
+ */
+package radieschen.wiki;
+
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+public class CharSequenceReader extends Reader {
+	private CharSequence text;
+	private int length, pos, mark;
+
+	public CharSequenceReader(CharSequence text){
+		this.text = text;
+		length = text.length();
+		pos = 0;
+		mark = 0;
+	}
+
+	public int read(){
+		if(pos >= length){
+			return -1;
+		}
+		return text.charAt(pos++);
+	}
+
+	public int read(char cbuf[], int off, int len){
+		int i, n;
+
+		if(len == 0){
+			return 0;
+		}
+		if(pos >= length){
+			return -1;
+		}
+		n = Math.min(len, length - pos);
+		if(text instanceof String){
+			((String)text).getChars(pos, pos + n, cbuf, off);
+		} else if(text instanceof CharBuffer && ((CharBuffer)text).hasArray()){
+			CharBuffer cb = (CharBuffer)text;
+			System.arraycopy(cb.array(), cb.arrayOffset() + cb.position() + pos,
+					cbuf, off, n);
+		} else {
+			for(i = 0; i < n; i++){
+				cbuf[off + i] = text.charAt(pos + i);
+			}
+		}
+		pos += n;
+		return n;
+	}
+
+	public long skip(long n){
+		int skipped = (int)Math.min(Math.max(n, 0), length - pos);
+		pos += skipped;
+		return skipped;
+	}
+
+	public boolean ready(){
+		return true;
+	}
+
+	public boolean markSupported(){
+		return true;
+	}
+
+	public void mark(int readAheadLimit){
+		mark = pos;
+	}
+
+	public void reset(){
+		pos = mark;
+	}
+
+	public void close(){
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * This is the manifest of an export directory. For each exported page it
+ * records a hash of the page source, if the page contains JXP scripts,
+ * a hash of the output written and the pages and images the page refers to.
+ * It is kept in the file .radiexport in the target directory.
+ *
+ * On the next export into the same directory with the same settings, a
+ * page whose source did not change and whose output is still there need
+ * not be rendered again: its links are taken from the manifest, so that
+ * pages linked to it are still exported. Pages with JXP scripts are always
+ * rendered, as their output depends on more then the source, but their
+ * output is only written when it changed.
+ *
+ * A page is rendered into a temporary file next to its output file,
+ * hashing the output on the way, so that it is never held in memory as a
+ * whole. putPage() then moves the temporary file into place or drops it.
+ *
+ * copyright: GPL
+ */
+package radieschen.wiki;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import radieschen.PageLoader;
+import radieschen.PageWriter;
+
+public class ExportManifest {
+	/**
+	 * the name of the manifest file in the target directory
+	 */
+	public final static String MANIFEST = ".radiexport";
+	private final static String HEADER = "# radieschen export manifest 1";
+
+	private File file;
+	private String config;
+	private HashMap previous;
+	private TreeMap current;
+
+	/**
+	 * an entry for a page
+	 */
+	private static class Entry {
+		String source, output;
+		boolean scripted;
+		Vector links, assets;
+
+		Entry(String source, boolean scripted, String output){
+			this.source = source;
+			this.scripted = scripted;
+			this.output = output;
+			links = new Vector();
+			assets = new Vector();
+		}
+	}
+	/**
+	 * the output of a page being rendered
+	 */
+	public static class PageOutput {
+		private File tmp;
+		private DigestOutputStream digest;
+		private PrintWriter out;
+
+		PageOutput(File output) throws IOException{
+			File dir = output.getAbsoluteFile().getParentFile();
+			tmp = File.createTempFile(".export", ".tmp", dir);
+			digest = new DigestOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmp)), newDigest());
+			out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(digest,
+					PageLoader.CHARSET)));
+		}
+		/**
+		 * @return The writer to render the page to
+		 */
+		public PrintWriter getWriter(){
+			return out;
+		}
+		/**
+		 * close the output
+		 * @return The hash of the output
+		 * @throws IOException when the output could not be written
+		 */
+		String finish() throws IOException{
+			out.close();
+			if(out.checkError()){
+				throw new IOException("Failed to write " + tmp);
+			}
+			return hex(digest.getMessageDigest().digest());
+		}
+		/**
+		 * throw the output away, unless it has been moved into place
+		 */
+		public void discard(){
+			out.close();
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * open the manifest of an export directory. The manifest of a previous
+	 * export is used only when it was made with the same settings.
+	 * @param targetDir The export directory
+	 * @param config A description of everything besides the page source
+	 * which goes into rendering a page, such as the renderer and style sheet
+	 * @param reuse When false, the previous manifest is ignored and all 
+	 * pages are rendered
+	 */
+	public ExportManifest(String targetDir, String config, boolean reuse){
+		this.file = new File(targetDir, MANIFEST);
+		this.config = config;
+		previous = new HashMap();
+		current = new TreeMap();
+		try{
+			if(reuse && file.exists()){
+				read(PageLoader.loadString(file));
+			}
+		}catch(IOException eva){
+			previous.clear();
+		}
+	}
+	/**
+	 * calculate the hash of some text
+	 * @param text The text to hash
+	 * @return The hash as a hex string
+	 */
+	public static String hash(CharSequence text){
+		MessageDigest md = newDigest();
+
+		ByteBuffer bytes = Charset.forName(PageLoader.CHARSET).encode(CharBuffer.wrap(text));
+		md.update(bytes);
+		return hex(md.digest());
+	}
+	private static MessageDigest newDigest(){
+		try{
+			return MessageDigest.getInstance("MD5");
+		}catch(NoSuchAlgorithmException eva){
+			throw new RuntimeException(eva);
+		}
+	}
+	private static String hex(byte digest[]){
+		StringBuffer stb = new StringBuffer();
+
+		for(int i = 0; i < digest.length; i++){
+			stb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+			stb.append(Character.forDigit(digest[i] & 0xf, 16));
+		}
+		return stb.toString();
+	}
+	/**
+	 * check if a page needs to be rendered again
+	 * @param page The page
+	 * @param source The hash of the page source
+	 * @param output The output file of the page
+	 * @return true when the page is unchanged since the last export. The
+	 * page is then kept in the manifest as it is.
+	 */
+	public synchronized boolean isUnchanged(String page, String source, File output){
+		Entry e = (Entry)previous.get(page);
+		if(e == null || e.scripted || !e.source.equals(source) || !output.exists()){
+			return false;
+		}
+		current.put(page, e);
+		return true;
+	}
+	/**
+	 * check if the output of a page changed
+	 * @param page The page
+	 * @param output The hash of the new output
+	 * @return true when the output is the same as on the last export
+	 */
+	public synchronized boolean isSameOutput(String page, String output){
+		Entry e = (Entry)previous.get(page);
+		return e != null && e.output.equals(output);
+	}
+	/**
+	 * @param page The page
+	 * @return The wiki pages the page linked to on the last export
+	 */
+	public synchronized Vector getLinks(String page){
+		Entry e = (Entry)previous.get(page);
+		return e != null ? e.links : new Vector();
+	}
+	/**
+	 * @param page The page
+	 * @return The local files the page referred to on the last export
+	 */
+	public synchronized Vector getAssets(String page){
+		Entry e = (Entry)previous.get(page);
+		return e != null ? e.assets : new Vector();
+	}
+	/**
+	 * start the output of a page to be rendered. It must be handed to 
+	 * putPage() when the page is complete, or else be discarded.
+	 * @param output The output file
+	 * @return The output to render the page to
+	 * @throws IOException when the output cannot be created
+	 */
+	public PageOutput openPage(File output) throws IOException {
+		return new PageOutput(output);
+	}
+	/**
+	 * move the output of a page which has been rendered into place, 
+	 * unless it is the same as on the last export, and enter the page
+	 * @param page The page
+	 * @param source The hash of the page source
+	 * @param scripted true when the page contains JXP scripts
+	 * @param content The rendered page, from openPage()
+	 * @param output The output file
+	 * @param links The wiki pages linked to
+	 * @param assets The local files referred to
+	 * @throws IOException when the output cannot be written
+	 */
+	public void putPage(String page, String source, boolean scripted, 
+			PageOutput content, File output, Collection links, Collection assets) 
+			throws IOException {
+		String outputHash = content.finish();
+
+		if(!output.exists() || !isSameOutput(page, outputHash)){
+			PageWriter.replace(content.tmp, output);
+		} else {
+			content.tmp.delete();
+		}
+		put(page, source, scripted, outputHash, links, assets);
+	}
+	/**
+	 * enter a page which has been rendered
+	 * @param page The page
+	 * @param source The hash of the page source
+	 * @param scripted true when the page contains JXP scripts
+	 * @param output The hash of the output
+	 * @param links The wiki pages linked to
+	 * @param assets The local files referred to
+	 */
+	public synchronized void put(String page, String source, boolean scripted,
+			String output, Collection links, Collection assets){
+		Entry e = new Entry(source, scripted, output);
+		e.links.addAll(links);
+		e.assets.addAll(assets);
+		current.put(page, e);
+	}
+	/**
+	 * write the manifest. Only pages exported in this run are kept.
+	 * @throws IOException when things go wrong
+	 */
+	public synchronized void save() throws IOException {
+		StringBuffer stb = new StringBuffer();
+		Iterator it, refs;
+		String page;
+		Entry e;
+
+		stb.append(HEADER);
+		stb.append('\n');
+		stb.append("C\t");
+		stb.append(config);
+		stb.append('\n');
+		it = current.keySet().iterator();
+		while(it.hasNext()){
+			page = (String)it.next();
+			e = (Entry)current.get(page);
+			stb.append("P\t");
+			stb.append(page);
+			stb.append('\t');
+			stb.append(e.source);
+			stb.append('\t');
+			stb.append(e.scripted ? '1' : '0');
+			stb.append('\t');
+			stb.append(e.output);
+			stb.append('\n');
+			refs = e.links.iterator();
+			while(refs.hasNext()){
+				stb.append("L\t");
+				stb.append(refs.next());
+				stb.append('\n');
+			}
+			refs = e.assets.iterator();
+			while(refs.hasNext()){
+				stb.append("A\t");
+				stb.append(refs.next());
+				stb.append('\n');
+			}
+		}
+		new PageWriter().write(file, stb.toString());
+	}
+	private void read(String data) throws IOException {
+		BufferedReader in = new BufferedReader(new StringReader(data));
+		String line, fields[];
+		Entry e = null;
+
+		line = in.readLine();
+		if(line == null || !line.equals(HEADER)){
+			return;
+		}
+		line = in.readLine();
+		if(line == null || !line.equals("C\t" + config)){
+			return;
+		}
+		while((line = in.readLine()) != null){
+			fields = line.split("\t");
+			if(fields[0].equals("P") && fields.length == 5){
+				e = new Entry(fields[2], fields[3].equals("1"), fields[4]);
+				previous.put(fields[1], e);
+			} else if(fields[0].equals("L") && fields.length == 2 && e != null){
+				e.links.add(fields[1]);
+			} else if(fields[0].equals("A") && fields.length == 2 && e != null){
+				e.assets.add(fields[1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * This keeps track of the pages of an export: the pages seen so far and
+ * the queue of pages still to be exported. Page names are brought into a
+ * canonical form, the file name with .radi and without an anchor, so that
+ * a page is exported once however it is linked to. Checking for a page is
+ * a hash lookup, thus exports grow linearly with the number of pages.
+ *
+ * Pages are exported in the order in which they were first linked to.
+ * All methods are synchronized, so that one traversal can be shared between
+ * the threads of a parallel export. These take pages through take() and
+ * hand them back through done(), so that a thread waits for more pages
+ * while others are still exporting pages which may link to them.
+ *
+ * copyright: GPL
+ */
+package radieschen.wiki;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+
+public class ExportTraversal {
+	private HashSet seen;
+	private LinkedList frontier;
+	private int active;
+	private boolean aborted;
+
+	public ExportTraversal(){
+		seen = new HashSet();
+		frontier = new LinkedList();
+		active = 0;
+		aborted = false;
+	}
+	/**
+	 * bring a page name into canonical form
+	 * @param name A page name as linked to, with or without .radi or an
+	 * anchor
+	 * @return The page file name or null when name is just an anchor on 
+	 * the same page
+	 */
+	public static String canonical(String name){
+		int idx;
+
+		name = name.trim();
+		if(name.startsWith("#")){
+			return null;
+		}
+		idx = name.indexOf('#');
+		if(idx > 0){
+			name = name.substring(0,idx);
+		}
+		if(!name.endsWith(".radi")){
+			name += ".radi";
+		}
+		return name;
+	}
+	/**
+	 * mark a page as seen without queuing it
+	 * @param name The page name
+	 * @return true when the page had not been seen before
+	 */
+	public synchronized boolean visit(String name){
+		String page = canonical(name);
+		return page != null && seen.add(page);
+	}
+	/**
+	 * queue a page for exporting unless it has been seen before or is just
+	 * an anchor on the same page
+	 * @param name The page name
+	 * @return true when the page has been queued
+	 */
+	public synchronized boolean add(String name){
+		String page = canonical(name);
+		if(page != null && seen.add(page)){
+			frontier.addLast(page);
+			notifyAll();
+			return true;
+		}
+		return false;
+	}
+	/**
+	 * @return The next page to export, as a canonical name, or null when
+	 * all pages have been exported
+	 */
+	public synchronized String next(){
+		if(frontier.isEmpty()){
+			return null;
+		}
+		return (String)frontier.removeFirst();
+	}
+	/**
+	 * take the next page to export, waiting while no page is queued but
+	 * pages taken are still being exported. Each page taken must be handed
+	 * back through done().
+	 * @return The next page to export, as a canonical name, or null when
+	 * all pages have been exported or the traversal has been aborted
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	public synchronized String take() throws InterruptedException{
+		while(frontier.isEmpty() && active > 0 && !aborted){
+			wait();
+		}
+		if(frontier.isEmpty() || aborted){
+			return null;
+		}
+		active++;
+		return (String)frontier.removeFirst();
+	}
+	/**
+	 * hand back a page taken, after it has been exported and the pages it
+	 * links to have been added
+	 */
+	public synchronized void done(){
+		active--;
+		notifyAll();
+	}
+	/**
+	 * stop handing out pages, as the export failed
+	 */
+	public synchronized void abort(){
+		aborted = true;
+		notifyAll();
+	}
+	/**
+	 * @return The number of pages seen
+	 */
+	public synchronized int size(){
+		return seen.size();
+	}
+	/**
+	 * forget all pages
+	 */
+	public synchronized void clear(){
+		seen.clear();
+		frontier.clear();
+		active = 0;
+		aborted = false;
+	}
+}
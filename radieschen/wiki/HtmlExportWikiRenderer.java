@@ -1,8 +1,8 @@
 /*
  * Created on Mar 17, 2006
- * This is for exporting wiki pages in HTML format. Linked wiki pages are put into
- * a stack if they have not been converted already. This shall ensure that all pages
- * linked to the start wiki page are converted too. 
+ * This is for exporting wiki pages in HTML format. Linked wiki pages are queued 
+ * in an ExportTraversal if they have not been seen already. This shall ensure 
+ * that all pages linked to the start wiki page are converted too. 
  *  
  * Author: Mark.Koennecke@psi.ch
  * License: GPL
@@ -10,14 +10,28 @@
 package radieschen.wiki;
 import java.io.*;
 
+import radieschen.JXPTemplate;
 import radieschen.RadiDatabase;
-import java.util.HashSet;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class HtmlExportWikiRenderer extends HtmlWikiRenderer{
-	protected Stack toConvert;
-	protected  HashSet converted;
+	protected ExportTraversal pages;
 	protected String targetDir, dbDir;
+	protected int parallelism;
+	protected boolean incremental;
+	/*
+	 * the pages and files referred to by the page being exported
+	 */
+	protected Set pageLinks, pageAssets;
+	protected ExportManifest manifest;
 	
 	/**
 	 * a constructor
@@ -25,10 +39,13 @@ public class HtmlExportWikiRenderer extends HtmlWikiRenderer{
 	 */
 	public HtmlExportWikiRenderer() throws IOException {
 		super();
-		toConvert = new Stack();
-		converted = new HashSet();
+		pages = new ExportTraversal();
 		targetDir = null;
 		dbDir = null;
+		parallelism = 1;
+		incremental = true;
+		pageLinks = new LinkedHashSet();
+		pageAssets = new LinkedHashSet();
 	}
 	/**
 	 * initialize ourselves with a special taglib.
@@ -37,10 +54,13 @@ public class HtmlExportWikiRenderer extends HtmlWikiRenderer{
 	 */
 	public HtmlExportWikiRenderer(String taglib) throws IOException {
 		super(taglib);
-		toConvert = new Stack();
-		converted = new HashSet();
+		pages = new ExportTraversal();
 		targetDir = null;
 		dbDir = null;
+		parallelism = 1;
+		incremental = true;
+		pageLinks = new LinkedHashSet();
+		pageAssets = new LinkedHashSet();
 	}
 	/**
 	 * format a wiki link. Take care of keeping track of linked pages, too
@@ -60,9 +80,8 @@ public class HtmlExportWikiRenderer extends HtmlWikiRenderer{
 			name = url;
 		}
 		
-		if(!converted.contains(name) && !toConvert.contains(name)){
-			toConvert.push(name);
-		}
+		pages.add(name);
+		pageLinks.add(name);
 		result = new StringBuffer();
 		result.append(name);
 		result.append(".html");
@@ -71,6 +90,22 @@ public class HtmlExportWikiRenderer extends HtmlWikiRenderer{
 		}
 		return result.toString();
 	}
+	/**
+	 * set the number of threads to use for exporting. With more then one 
+	 * thread, linked pages are rendered and written concurrently.
+	 * @param parallelism The number of threads to use
+	 */
+	public void setParallelism(int parallelism){
+		this.parallelism = Math.max(1,parallelism);
+	}
+	/**
+	 * set if pages unchanged since the last export into the same directory
+	 * are skipped. See ExportManifest.
+	 * @param incremental true for skipping unchanged pages 
+	 */
+	public void setIncremental(boolean incremental){
+		this.incremental = incremental;
+	}
 	/**
 	 * export a wiki page and its linked pages into targetdir
 	 * @param page The start page
@@ -80,44 +115,178 @@ public class HtmlExportWikiRenderer extends HtmlWikiRenderer{
 	 */
 	public void export(String page, String targetDir, RadiDatabase db, 
 			String cssFile) throws IOException{
-		String renderedPage;
-		String pageData;
 		String currentPage;
-		StringBuffer htmlText;
-		String filename;
 		
-		toConvert.clear();
-		converted.clear();
+		manifest = new ExportManifest(targetDir, getClass().getName() + "\t" + 
+				targetDir + "\t" + cssFile, incremental);
+		if(parallelism > 1){
+			exportParallel(page, targetDir, db, cssFile);
+		} else {
+			pages.clear();
+			pages.add(page);
+
+			this.targetDir = targetDir;
+			this.dbDir = db.getDatabase(); 
+			while((currentPage = pages.next()) != null){
+				exportPage(currentPage, db, cssFile);
+			}
+		}
+		manifest.save();
+		manifest = null;
+		finishCopies(db);
+	}
+	/**
+	 * render a single page and write it to targetDir. A page unchanged 
+	 * since the last export is skipped, but the pages it links to are 
+	 * still queued.
+	 * @param currentPage The page to export
+	 * @param db The database to get wiki data from.
+	 * @param cssFile The style sheet to reference
+	 * @throws IOException if there is an IO problem
+	 */
+	protected void exportPage(String currentPage, RadiDatabase db, 
+			String cssFile) throws IOException{
+		CharSequence source;
+		String sourceHash;
+		File file;
+		Iterator it;
 		
-		toConvert.push(page);
+		if(currentPage.indexOf(".radi") < 0){
+			currentPage += ".radi";
+		}
+		source = db.getWikiPage(currentPage);
+		sourceHash = ExportManifest.hash(source);
+		file = new File(targetDir + File.separatorChar + 
+			currentPage.replaceFirst(".radi",".html"));
+		if(manifest.isUnchanged(currentPage, sourceHash, file)){
+			it = manifest.getLinks(currentPage).iterator();
+			while(it.hasNext()){
+				formatWikiLink((String)it.next());
+			}
+			it = manifest.getAssets(currentPage).iterator();
+			while(it.hasNext()){
+				tryCopyLocalFile(dbDir, targetDir, (String)it.next());
+			}
+			return;
+		}
+		pageLinks.clear();
+		pageAssets.clear();
+		ExportManifest.PageOutput content = manifest.openPage(file);
+		try{
+			PrintWriter out = content.getWriter();
+			out.print(HtmlHeader.makeHtml3Header(currentPage,targetDir,cssFile));
+/*
+			render(new HtmlWikiTokenFilter(new 
+					JFlexWikiLexer(new StringReader(pageData))), out);
+*/						
+			render(createTokenProducer(db.processJXP(currentPage, source)), out);
+			out.print("</body></html>\n");
+			out.println();
+			manifest.putPage(currentPage, sourceHash, JXPTemplate.hasTags(source),
+					content, file, pageLinks, pageAssets);
+		}finally{
+			content.discard();
+		}
+	}
+	/**
+	 * create a renderer for a worker thread of a parallel export. 
+	 * Derived classes which support parallel export have to override this.
+	 * @return A new renderer of the same kind as this one
+	 * @throws IOException when the tag library cannot be opened
+	 */
+	protected HtmlExportWikiRenderer newWorkerRenderer() throws IOException{
+		return new HtmlExportWikiRenderer();
+	}
+	/**
+	 * export with a pool of worker threads. The workers take pages from an 
+	 * ExportTraversal shared between them and queue the pages linked to 
+	 * there, until no page is left. Each worker renders with its own 
+	 * renderer.
+	 * @param page The start page
+	 * @param targetDir The target directory
+	 * @param db The database to get wiki data from.
+	 * @throws IOException if there is an IO problem
+	 */
+	protected void exportParallel(String page, String targetDir, 
+			RadiDatabase db, String cssFile) throws IOException{
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		ExportTraversal visited = new ExportTraversal();
+		ArrayList results = new ArrayList();
+		HtmlExportWikiRenderer r;
+		int i;
 		
 		this.targetDir = targetDir;
 		this.dbDir = db.getDatabase(); 
-		while(!toConvert.empty()){
-			currentPage = (String)toConvert.pop();
-			converted.add(currentPage);
-			if(currentPage.indexOf(".radi") < 0){
-				currentPage += ".radi";
+		if(assetCopier == null){
+			assetCopier = new AssetCopier(dbDir, targetDir);
+		}
+		visited.add(page);
+		try{
+			for(i = 0; i < parallelism; i++){
+				r = newWorkerRenderer();
+				r.targetDir = targetDir;
+				r.dbDir = dbDir;
+				r.manifest = manifest;
+				r.assetCopier = assetCopier;
+				results.add(pool.submit(new PageWorker(r, visited, db, cssFile)));
 			}
-			pageData = db.getWikiSource(currentPage);
-/*
-			renderedPage = render(new HtmlWikiTokenFilter(new 
-						JFlexWikiLexer(new StringReader(pageData))));
-*/						
-			renderedPage = render(new StateMachineTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
-			htmlText = null;
-			htmlText = new StringBuffer();
-			htmlText.append(HtmlHeader.makeHtml3Header(currentPage,targetDir,cssFile));
-			htmlText.append(renderedPage);
-			htmlText.append("</body></html>\n");
+			for(i = 0; i < results.size(); i++){
+				((Future)results.get(i)).get();
+			}
+		}catch(InterruptedException eva){
+			throw new InterruptedIOException("Export interrupted");
+		}catch(ExecutionException eva){
+			if(eva.getCause() instanceof IOException){
+				throw (IOException)eva.getCause();
+			}
+			if(eva.getCause() instanceof Error){
+				throw (Error)eva.getCause();
+			}
+			throw new RuntimeException(eva.getCause());
+		}finally{
+			visited.abort();
+			pool.shutdown();
+		}
+	}
+	/**
+	 * a worker of a parallel export: renders pages until none is left
+	 */
+	private static class PageWorker implements Callable {
+		private HtmlExportWikiRenderer r;
+		private ExportTraversal visited;
+		private RadiDatabase db;
+		private String cssFile;
+		
+		PageWorker(HtmlExportWikiRenderer r, ExportTraversal visited,
+				RadiDatabase db, String cssFile){
+			this.r = r;
+			this.visited = visited;
+			this.db = db;
+			this.cssFile = cssFile;
+		}
+		public Object call() throws Exception{
+			String page, linked;
+			boolean ok = false;
 			
-			filename = targetDir + File.separatorChar + 
-				currentPage.replaceFirst(".radi",".html");
-			PrintWriter out = new PrintWriter(new FileWriter(filename));
-			out.println(htmlText.toString());
-			out.close();
-			out = null;
+			try{
+				while((page = visited.take()) != null){
+					try{
+						r.pages.clear();
+						r.exportPage(page, db, cssFile);
+						while((linked = r.pages.next()) != null){
+							visited.add(linked);
+						}
+					}finally{
+						visited.done();
+					}
+				}
+				ok = true;
+			}finally{
+				if(!ok){
+					visited.abort();
+				}
+			}
+			return null;
 		}
 	}
 	/**
@@ -126,6 +295,8 @@ public class HtmlExportWikiRenderer extends HtmlWikiRenderer{
 	 */
 	protected void processImage(String txt){
 		super.processImage(txt);
-		tryCopyLocalFile(dbDir, targetDir,txt.substring(2,txt.length()-2));
+		String file = txt.substring(2,txt.length()-2);
+		tryCopyLocalFile(dbDir, targetDir, file);
+		pageAssets.add(file);
 	}	
 }
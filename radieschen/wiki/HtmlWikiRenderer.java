@@ -8,17 +8,27 @@
  */  
 package radieschen.wiki;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 public class HtmlWikiRenderer extends BaseWikiRenderer{
-	protected HashMap charMap;
+	/*
+	 * the character encodings are the same for all renderers: they are built
+	 * once and shared, thus must not be changed
+	 */
+	private final static Map CHARMAP = initCharMap();
+	private final static String CHARTABLE[] = makeCharTable(CHARMAP);
+	protected Map charMap;
+	protected String charTable[];
 	/**
 	 * constructor: starts with tag library for HTML
 	 * @throws IOException when tag library cannot be opened
 	 */
 	public HtmlWikiRenderer() throws IOException{
 		super("/radieschen/wiki/html.prop");
-		initCharMap();
+		charMap = CHARMAP;
+		charTable = CHARTABLE;
 	}
 	/**
 	 * initialize ourselves with a special taglib.
@@ -27,7 +37,8 @@ public class HtmlWikiRenderer extends BaseWikiRenderer{
 	 */
 	public HtmlWikiRenderer(String taglib) throws IOException {
 		super(taglib);
-		initCharMap();
+		charMap = CHARMAP;
+		charTable = CHARTABLE;
 	}
 	
 	/**
@@ -117,6 +128,15 @@ public class HtmlWikiRenderer extends BaseWikiRenderer{
 			result.append(txt);
 		}
 	}
+	/**
+	 * process characters, thereby applying HTML encoding
+	 * @param txt The characters to process
+	 * @param start The index of the first character to process
+	 * @param end The index after the last character to process
+	 */
+	protected void processChars(CharSequence txt, int start, int end){
+		appendEncoded(txt, start, end, charTable);
+	}
 	/**
 	 * process colour markup for text
 	 * @param txt The colour markup
@@ -130,10 +150,11 @@ public class HtmlWikiRenderer extends BaseWikiRenderer{
 	/**
 	 * initialize the character map
 	 */
-	private void initCharMap(){
-		charMap = new HashMap();
+	private static Map initCharMap(){
+		HashMap charMap = new HashMap();
 		charMap.put("<","&lt;");
 		charMap.put(">","&gt;");
 		charMap.put("\\","&quot;");
+		return Collections.unmodifiableMap(charMap);
 	}
 }
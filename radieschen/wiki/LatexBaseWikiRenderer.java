@@ -6,59 +6,71 @@
  */
 package radieschen.wiki;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.HashSet;
+import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
 
 public class LatexBaseWikiRenderer extends BaseWikiRenderer{
-	protected int tableDepth;
-	protected boolean tableStart;
-	protected HashMap charMap;
-	protected HashMap symbolMap;
+	/*
+	 * while in a table, result holds the table and tableOuter what came 
+	 * before it
+	 */
+	protected StringBuffer tableOuter;
+	protected int tableColumns, rowColumns;
+	private final static String TABULAR = "\\begin{tabular}";
+	/*
+	 * the character and symbol encodings are the same for all renderers: 
+	 * they are built once and shared, thus must not be changed
+	 */
+	private final static Map CHARMAP = initCharMap();
+	private final static String CHARTABLE[] = makeCharTable(CHARMAP);
+	private final static Map SYMBOLMAP = initSymbolMap();
+	protected Map charMap;
+	protected String charTable[];
+	protected Map symbolMap;
     protected boolean firstHeader;
 	protected String targetDir, dbDir;
-	protected LinkedList toConvert;
-	protected HashSet converted;
+	protected ExportTraversal pages;
 	protected String currentFile;
 
 	public LatexBaseWikiRenderer(String tagMap) throws IOException{
 		super(tagMap);
-		tableDepth = 0;
-		tableStart = false;
-		initCharMap();
-		initSymbolMap();
+		tableOuter = null;
+		tableColumns = 0;
+		rowColumns = 0;
+		charMap = CHARMAP;
+		charTable = CHARTABLE;
+		symbolMap = SYMBOLMAP;
 		firstHeader = false;
 		targetDir = null;
 		dbDir = null;
-		toConvert = new LinkedList();
-		converted = new HashSet();
+		pages = new ExportTraversal();
 		currentFile = null;
 	}
 	/**
-	 * The main entry point: the render function
+	 * Render all tokens from input into result
 	 * @param input RThe TokneProducer from which to render things
-	 * @return A rendered String
 	 */
-	public  String render(TokenProducer input) throws IOException{
+	protected void renderTokens(TokenProducer input) throws IOException{
 		WikiToken tok;
 		String tagName;
 		int length;
 		boolean multiOpen = false;
 		
-		result = null;
-		result = new StringBuffer();
 		firstHeader = true;
 		
 		tok = input.nextToken();
 		while(tok != null){
+			flushResult(false);
 			//System.out.println("Rendering token: " + tok.getType() + ", text = " + tok.getText());
 			switch(tok.getType()){
 			case WikiToken.CHAR:
+			case WikiToken.TEXT:
 			case WikiToken.STARTCHAR:
 			case WikiToken.NL:	
-				processChar(tok.getText());
+				processChars(tok, 0, tok.length());
 				break;
 			case WikiToken.IGNORE:
 				tok = input.nextToken();
@@ -73,8 +85,8 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 				processEndHeader(tok.getText());
 				break;
 			case WikiToken.ESCAPE:
-				length = tok.getText().length();
-				processChar(tok.getText().substring(length-1,length));
+				length = tok.length();
+				processChars(tok, length-1, length);
 				break;
 			case WikiToken.IMAGE:
 				processImage(tok.getText());
@@ -88,20 +100,18 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 			case WikiToken.STARTCOLOUR:
 				break;
 			case WikiToken.TABLEOPEN:
-				tableStart = true;
-				tableDepth = 0;
+				startTable();
+				break;
+			case WikiToken.TABLECLOSE:
+				endTable();
 				appendTokenTag(tok.getType());
 				break;
 			case WikiToken.TABLEROW:
-				if(tableStart){
-					tableDepth++;
-				}
+				rowColumns = 1;
 				appendTokenTag(tok.getType());
 				break;
 			case WikiToken.MULTIROW:
-				if(tableStart){
-					tableDepth++;
-				}
+				rowColumns = tok.length() - 1;
 				processMultiStart(tok.getText());
 				multiOpen = true;
 				break;
@@ -110,9 +120,7 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 					result.append("}");
 					multiOpen = false;
 				}
-				if(tableStart){
-					tableDepth++;
-				}
+				rowColumns++;
 				appendTokenTag(tok.getType());
 				break;
 			case WikiToken.MULTISEP:
@@ -120,9 +128,7 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 					result.append("}");
 					multiOpen = false;
 				}
-				if(tableStart){
-					tableDepth++;
-				}
+				rowColumns += tok.length() - 1;
 				processMultiSep(tok.getText());
 				multiOpen = true;
 				break;
@@ -131,8 +137,7 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 					result.append("}");
 					multiOpen = false;
 				}
-				tableDepth++;
-				treatTableSize();
+				tableColumns = Math.max(tableColumns, rowColumns);
 				appendTokenTag(tok.getType());
 				break;
 			case WikiToken.SYMBOL:
@@ -144,7 +149,14 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 			}
 			tok = input.nextToken();
 		}
-		return result.toString();
+		endTable();
+	}
+	/**
+	 * A table is collected in result and only added to the output when
+	 * it is complete. It must not be written out before.
+	 */
+	protected boolean canFlush(){
+		return tableOuter == null;
 	}
 	/**
 	 * processSymbol processes special symbols like umlauts etc.
@@ -179,44 +191,57 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 	 * @throws IOException when the token cannot be found
 	 */
 	protected void appendTokenTag(int tokenType)throws IOException{
-		String tagName = (String)tokenToName.get(new Integer(tokenType));
-		String tagText  = null;
-		if(tagName == null){
-			throw new IOException("Bad token maping");
-		}
-		tagText = tagMap.getProperty(tagName);
+		String tagText = tagMap.getTag(tokenType);
 		if(tagText != null){
 			result.append(tagText);
 		}
 	}
 
 	/**
-	 * in latex tabular, the tabular environment start must hold the size of the table.
-	 * This is not known until the first complete table row has been read. This code
-	 * replaces the tabular environment in result with something which matches the
-	 * size of the table.Necessarily they will fail in tables which are not equally
-	 * columned.
+	 * in latex tabular, the tabular environment start must hold the number of 
+	 * columns of the table. This is not known until the whole table has been 
+	 * read. Thus the table start is written up to the tabular environment, and 
+	 * the table itself is collected in a fresh result. endTable() then adds 
+	 * the column specification and the table to the output in one go.
 	 */
-	private void treatTableSize(){
-		int i;
-		String tabst = "\\begin{tabular}";
+	private void startTable(){
+		String tag = tagMap.getProperty("tablestart");
+		int idx;
 		
-		if(!tableStart){
+		tableColumns = 0;
+		rowColumns = 0;
+		if(tag == null){
+			return;
+		}
+		idx = tag.indexOf(TABULAR);
+		if(idx < 0 || tableOuter != null){
+			result.append(tag);
 			return;
 		}
+		idx += TABULAR.length();
+		result.append(tag, 0, idx);
+		tableOuter = result;
+		result = new StringBuffer();
+		result.append(tag, idx, tag.length());
+	}
+	/**
+	 * add the column specification for the widest row and the collected 
+	 * table to the output 
+	 */
+	private void endTable(){
+		int i;
 		
-		StringBuffer tab = new StringBuffer();
-		tab.append(tabst);
-		tab.append("{|");
-		for(i = 0; i < tableDepth; i++){
-			tab.append("c|");
+		if(tableOuter == null){
+			return;
 		}
-		tab.append("}\n");
-		int idx = result.lastIndexOf(tabst);
-		if(idx >= 0){
-			result = result.replace(idx,idx + tabst.length(),tab.toString());
+		tableOuter.append("{|");
+		for(i = 0; i < tableColumns; i++){
+			tableOuter.append("c|");
 		}
-		tableStart = false;
+		tableOuter.append("}\n");
+		tableOuter.append(result);
+		result = tableOuter;
+		tableOuter = null;
 	}
 	/**
 	 * process preformatted data
@@ -239,9 +264,7 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 		result.append(tagMap.getProperty("defitem"));
 		idx = txt.indexOf(":");
 		itemText = txt.substring(1,idx);
-		for(i = 0; i < itemText.length(); i++){
-			processChar(itemText.substring(i,i+1));
-		}
+		processChars(itemText, 0, itemText.length());
 		result.append('\n');
 		result.append(tagMap.getProperty("defitemclose"));
 		result.append(tagMap.getProperty("defdata"));
@@ -259,11 +282,20 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 			result.append(txt);
 		}
 	}
+	/**
+	 * process characters, thereby applying Latex encoding
+	 * @param txt The characters to process
+	 * @param start The index of the first character to process
+	 * @param end The index after the last character to process
+	 */
+	protected void processChars(CharSequence txt, int start, int end){
+		appendEncoded(txt, start, end, charTable);
+	}
 	/**
 	 * initialize the character map
 	 */
-	private void initCharMap(){
-		charMap = new HashMap();
+	private static Map initCharMap(){
+		HashMap charMap = new HashMap();
 		charMap.put("~","\\~{}");
 		charMap.put("_","\\_");
 		charMap.put("^","\\^{}");
@@ -272,12 +304,13 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 		charMap.put("{","\\{");
 		charMap.put("}","\\}");
 		charMap.put("$","\\$");
+		return Collections.unmodifiableMap(charMap);
 	}
 	/*
 	 * initialize the symbol map
 	 */
-	private void initSymbolMap(){
-		symbolMap = new HashMap();
+	private static Map initSymbolMap(){
+		HashMap symbolMap = new HashMap();
 		symbolMap.put("&uuml;","\\\"u");
 		symbolMap.put("&auml;","\\\"a");
 		symbolMap.put("&ouml;","\\\"o");
@@ -286,6 +319,7 @@ public class LatexBaseWikiRenderer extends BaseWikiRenderer{
 		symbolMap.put("&Ouml;","\\\"O");
 		symbolMap.put("&Aring;","\\AA");
 		symbolMap.put("&aring;","\\aa");
+		return Collections.unmodifiableMap(symbolMap);
 	}
 }
 
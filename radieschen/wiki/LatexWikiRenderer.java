@@ -6,13 +6,12 @@
  *  Mark Koennecke, May 2006
  */
 package radieschen.wiki;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringReader;
-import java.net.URL;
-import java.util.Properties;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -28,10 +27,7 @@ public class LatexWikiRenderer extends LatexBaseWikiRenderer {
 	 * @throws IOException
 	 */
 	public LatexWikiRenderer(int book) throws IOException{
-		super("/radieschen/wiki/latex.prop");
-		if(book != RadiDatabase.ARTICLE){
-			loadFormat(book);
-		}
+		super(getFormatPath(book));
 	}
 	/**
 	 * load the right format mapping
@@ -39,24 +35,23 @@ public class LatexWikiRenderer extends LatexBaseWikiRenderer {
 	 * @throws IOException if the format cannot be loaded
 	 */
 	public void loadFormat(int format)throws IOException{
-		String mapURL;
-		
+		tagMap = TagTemplates.get(getFormatPath(format));
+	}
+	/**
+	 * get the tag file of a format
+	 * @param format The format
+	 * @return The resource path of the tag file
+	 * @throws IOException if there is no such format
+	 */
+	private static String getFormatPath(int format) throws IOException{
 		switch(format){
 		case RadiDatabase.ARTICLE:
-			mapURL = "/radieschen/wiki/latex.prop";
-			break;
+			return "/radieschen/wiki/latex.prop";
 		case RadiDatabase.BOOK:
-			mapURL = "/radieschen/wiki/latexbook.prop";
-			break;
+			return "/radieschen/wiki/latexbook.prop";
 		default:
 			throw new IOException("Invalid latex format requested");
 		}
-		tagMap = new Properties();
-		URL ulli = BaseWikiRenderer.class.getResource(mapURL);
-		if(ulli == null){
-			throw new IOException("Tag property file not found");
-		}
-		tagMap.load(ulli.openStream());
 	}
 	/**
 	 * process link data. This has to be overriden by special implementations
@@ -86,9 +81,7 @@ public class LatexWikiRenderer extends LatexBaseWikiRenderer {
 				result.append("\\ref{");
 				result.append(linkData);
 				result.append("}");
-				if(!converted.contains(name) && !toConvert.contains(name)){
-					toConvert.addLast(name);
-				}
+				pages.add(name);
 			}
 		} else {
 				result.append(linkData);
@@ -117,48 +110,37 @@ public class LatexWikiRenderer extends LatexBaseWikiRenderer {
 	 */
 	public void export(String page, String targetDir, RadiDatabase db, 
 			String cssFile) throws IOException{
-		String renderedPage;
-		String pageData;
+		CharSequence pageData;
 		String currentPage;
-		StringBuffer htmlText;
 		String filename;
 		
-		toConvert.clear();
-		converted.clear();
-		
-		toConvert.addLast(page);
+		pages.clear();
+		pages.add(page);
 		
-		htmlText = null;
-		htmlText = new StringBuffer();
-		htmlText.append(tagMap.getProperty("dochead"));
-		htmlText.append("\\usepackage[dvips]{graphicx}\n");
-		htmlText.append("\n\\begin{document}\n");
 		filename = targetDir + File.separatorChar + 
 		page.replaceFirst(".radi",".tex");
 		this.targetDir = targetDir;
 		this.dbDir = db.getDatabase(); 
-		while(toConvert.size() > 0){
-			currentPage = (String)toConvert.getFirst();
-			converted.add(currentPage);
-			if(currentPage.indexOf(".radi") < 0){
-				currentPage += ".radi";
-			}
-			pageData = db.getWikiSource(currentPage);
-			firstHeader = true;
-			currentFile = FilenameUtils.removeExtension(currentPage);
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+		try{
+			out.print(tagMap.getProperty("dochead"));
+			out.print("\\usepackage[dvips]{graphicx}\n");
+			out.print("\n\\begin{document}\n");
+			while((currentPage = pages.next()) != null){
+				pageData = db.getWikiChars(currentPage);
+				firstHeader = true;
+				currentFile = FilenameUtils.removeExtension(currentPage);
 /*
-			renderedPage = render(new HtmlWikiTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
+				render(new HtmlWikiTokenFilter(new 
+						JFlexWikiLexer(new StringReader(pageData))), out);
 */
-			renderedPage = render(new StateMachineTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
-			htmlText.append(renderedPage);
-			toConvert.removeFirst();
+				render(createTokenProducer(pageData), out);
+			}
+			out.print("\n\\end{document}\n");
+			out.println();
+		}finally{
+			out.close();
 		}
-		htmlText.append("\n\\end{document}\n");
-		PrintWriter out = new PrintWriter(new FileWriter(filename));
-		out.println(htmlText.toString());
-		out.close();
-		out = null;
+		finishCopies(db);
 	}
 }
@@ -10,31 +10,41 @@
 package radieschen.wiki;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Stack;
+import java.util.Set;
 
+import radieschen.JXPTemplate;
 import radieschen.RadiDatabase;
 
 public class MarkdownRenderer extends BaseWikiRenderer {
 	private String targetDir, dbDir;
 	boolean export;
 	private int listDepth;
-	protected Stack toConvert;
-	protected  HashSet converted;
+	protected ExportTraversal pages;
+	protected boolean incremental;
+	/*
+	 * the pages and files referred to by the page being exported
+	 */
+	protected Set pageLinks, pageAssets;
+	protected ExportManifest manifest;
 	
 	public MarkdownRenderer() throws IOException {
 		super("/radieschen/wiki/markdown.prop");
 		export = false;
 		listDepth = -1;
-		toConvert = new Stack();
-		converted = new HashSet();
+		pages = new ExportTraversal();
+		incremental = true;
+		pageLinks = new LinkedHashSet();
+		pageAssets = new LinkedHashSet();
+		/*
+		 * table cells are trimmed token by token in processTable()
+		 */
+		textSpans = false;
 	}
 
 	protected void processLink(String txt) {
@@ -54,9 +64,8 @@ public class MarkdownRenderer extends BaseWikiRenderer {
 		}
 		if(!url.startsWith("http") && !url.startsWith("ftp") &&!url.startsWith("file")){
 			result.append('[' + name.trim() +"](" + url + ".md)");
-			if(!converted.contains(name) && !toConvert.contains(name)){
-				toConvert.push(name);
-			}
+			pages.add(url);
+			pageLinks.add(url);
 		} else {
 			result.append("[" + name.trim() + "](" + url +")");
 		}
@@ -65,7 +74,9 @@ public class MarkdownRenderer extends BaseWikiRenderer {
 	protected void processImage(String txt) {
 		result.append("![](" + txt + ")");
 		if(export){
-			tryCopyLocalFile(dbDir, targetDir,txt.substring(2,txt.length()-2));
+			String file = txt.substring(2,txt.length()-2);
+			tryCopyLocalFile(dbDir, targetDir, file);
+			pageAssets.add(file);
 		}
 	}
 
@@ -75,9 +86,16 @@ public class MarkdownRenderer extends BaseWikiRenderer {
 				result.append("    " + lines[i] + "\n");
 			}
 	}
+	/**
+	 * set if pages unchanged since the last export into the same directory
+	 * are skipped. See ExportManifest.
+	 * @param incremental true for skipping unchanged pages 
+	 */
+	public void setIncremental(boolean incremental){
+		this.incremental = incremental;
+	}
 	/**
 	 * export a wiki page and its linked pages into targetdir in Markdown format.
-	 * TODO: make this work recusively.
 	 * @param page The start page
 	 * @param targetDir The target directory
 	 * @param db The database to get wiki data from.
@@ -89,32 +107,44 @@ public class MarkdownRenderer extends BaseWikiRenderer {
 		this.targetDir = targetDir;
 		export = true;
 		
-		toConvert.clear();
-		converted.clear();
-		
-		if(page.indexOf(".radi") < 0){
-			page += ".radi";
-		}
+		pages.clear();
+		pages.add(page);
+		manifest = new ExportManifest(targetDir, getClass().getName() + "\t" + 
+				targetDir, incremental);
 		
-		toConvert.push(page);
-		
-		while(!toConvert.empty()){
-			String currentPage = (String)toConvert.pop();
-			converted.add(currentPage);
-			if(currentPage.indexOf(".radi") <0){
-				currentPage += ".radi";
+		String currentPage;
+		while((currentPage = pages.next()) != null){
+			CharSequence source = db.getWikiPage(currentPage);
+			String sourceHash = ExportManifest.hash(source);
+			File file = new File(targetDir + File.separatorChar + 
+					currentPage.replaceFirst(".radi",".md"));
+			if(manifest.isUnchanged(currentPage, sourceHash, file)){
+				Iterator it = manifest.getLinks(currentPage).iterator();
+				while(it.hasNext()){
+					pages.add((String)it.next());
+				}
+				it = manifest.getAssets(currentPage).iterator();
+				while(it.hasNext()){
+					tryCopyLocalFile(dbDir, targetDir, (String)it.next());
+				}
+				continue;
+			}
+			pageLinks.clear();
+			pageAssets.clear();
+			ExportManifest.PageOutput content = manifest.openPage(file);
+			try{
+				PrintWriter out = content.getWriter();
+				render(createTokenProducer(db.processJXP(currentPage, source)), out);
+				out.println();
+				manifest.putPage(currentPage, sourceHash, JXPTemplate.hasTags(source),
+						content, file, pageLinks, pageAssets);
+			}finally{
+				content.discard();
 			}
-			String pageData = db.getWikiSource(currentPage);
-			String renderedPage = render(new StateMachineTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
-
-			String filename = targetDir + File.separatorChar + 
-					currentPage.replaceFirst(".radi",".md");
-			PrintWriter out = new PrintWriter(new FileWriter(filename));
-			out.println(renderedPage.toString());
-			out.close();
-			out = null;
 		}
+		manifest.save();
+		manifest = null;
+		finishCopies(db);
 		
 		export = false;
 	}
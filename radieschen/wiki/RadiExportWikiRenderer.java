@@ -1,16 +1,26 @@
 /**
  * This class helps in exporting part or radi system to another directory. 
- * It does run a html rendering in order to get access to the linked pages 
- * and images which need to be copied too.
+ * The linked pages and images which need to be copied too are taken from 
+ * the link graph. Pages with JXP scripts are run through a html rendering 
+ * instead, as scripts may create links. 
  * 
  * Mark Koennecke, October 2006
  * 
  */
 package radieschen.wiki;
+import radieschen.JXPTemplate;
+import radieschen.LinkGraph;
+import radieschen.PageWriter;
 import radieschen.RadiDatabase;
 import java.io.*;
+import java.util.Iterator;
 
 public class RadiExportWikiRenderer extends HtmlExportWikiRenderer{
+	private static final Writer discard = new Writer(){
+		public void write(char buf[], int off, int len){}
+		public void flush(){}
+		public void close(){}
+	};
 	
 	/*
 	 * a constructor: to satisfy Java
@@ -27,41 +37,55 @@ public class RadiExportWikiRenderer extends HtmlExportWikiRenderer{
 	 */
 	public void export(String page, String targetDir, RadiDatabase db, 
 			String cssFile) throws IOException{
-		String renderedPage;
-		String pageData;
-		String currentPage;
-		StringBuffer htmlText;
+		CharSequence source, pageData;
+		String currentPage, start;
 		String filename;
+		LinkGraph graph = db.getLinkGraph();
+		Iterator it;
 		
-		toConvert.clear();
-		converted.clear();
-		
-		toConvert.push(page);
+		pages.clear();
+		pages.add(page);
+		start = ExportTraversal.canonical(page);
 		
 		this.targetDir = targetDir;
 		this.dbDir = db.getDatabase(); 
-		while(!toConvert.empty()){
-			currentPage = (String)toConvert.pop();
-			converted.add(currentPage);
-			if(currentPage.indexOf(".radi") < 0){
-				currentPage += ".radi";
-			}
-			pageData = db.getWikiSource(currentPage);
-/*
-			renderedPage = render(new HtmlWikiTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
-*/
-			renderedPage = render(new StateMachineTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
-			if(currentPage == page){
-				filename = targetDir + File.separatorChar + "Start.radi";
-			} else {
-				filename = targetDir + File.separatorChar + currentPage;
+		/*
+		 * the pages are forced to disk together at the end
+		 */
+		PageWriter writer = new PageWriter();
+		writer.beginBatch();
+		try{
+			while((currentPage = pages.next()) != null){
+				source = db.getWikiPage(currentPage);
+				if(JXPTemplate.hasTags(source)){
+					pageData = db.processJXP(currentPage, source);
+					/*
+					 * rendering is only needed for finding linked pages and 
+					 * images, the rendered text is thrown away
+					 */
+					render(createTokenProducer(pageData), discard);
+				} else {
+					pageData = source;
+					it = graph.getLinks(currentPage).iterator();
+					while(it.hasNext()){
+						pages.add((String)it.next());
+					}
+					it = graph.getImages(currentPage).iterator();
+					while(it.hasNext()){
+						tryCopyLocalFile(dbDir, targetDir, (String)it.next());
+					}
+				}
+				if(currentPage.equals(start)){
+					filename = targetDir + File.separatorChar + "Start.radi";
+				} else {
+					filename = targetDir + File.separatorChar + currentPage;
+				}
+				writer.write(new File(filename), 
+						pageData + System.getProperty("line.separator"));
 			}
-			PrintWriter out = new PrintWriter(new FileWriter(filename));
-			out.println(pageData);
-			out.close();
-			out = null;
+		}finally{
+			writer.endBatch();
 		}
+		finishCopies(db);
 	}
 }
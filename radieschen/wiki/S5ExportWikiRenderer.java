@@ -6,13 +6,16 @@
  * Mark Koennecke, November 2006
  */
 package radieschen.wiki;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringReader;
-import java.util.LinkedList;
+import java.io.Writer;
 import org.apache.commons.io.IOUtils;
 
 import radieschen.RadiDatabase;
@@ -20,7 +23,11 @@ import radieschen.RadiDatabase;
 public class S5ExportWikiRenderer extends HtmlExportWikiRenderer {
 	protected boolean slideOpen;
 	protected String template;
-	protected LinkedList toConvert;
+	/*
+	 * the pages turned into slides. Links found while rendering are queued in
+	 * pages of HtmlExportWikiRenderer and are not followed.
+	 */
+	protected ExportTraversal slidePages;
 	private static final String contentID = "!!CONTENT!!";
 	
 	/**
@@ -30,7 +37,7 @@ public class S5ExportWikiRenderer extends HtmlExportWikiRenderer {
 	public S5ExportWikiRenderer()throws IOException {
 		super("/radieschen/wiki/s5.prop");
 		slideOpen = false;
-		toConvert = new LinkedList();
+		slidePages = new ExportTraversal();
 	}
 	/**
 	 * export a wiki page and its linked pages into targetdir
@@ -40,15 +47,14 @@ public class S5ExportWikiRenderer extends HtmlExportWikiRenderer {
 	 * @throws IOException if there is an IO problem
 	 */
 	public void export(String page, String targetDir, RadiDatabase db) throws IOException{
-		String renderedPage;
-		String pageData;
+		CharSequence pageData;
 		String currentPage;
-		StringBuffer htmlText;
 		String filename, templateFile;
+		File slideFile;
 		
-		toConvert.clear();
-		converted.clear();
-		toConvert.addLast(page);
+		pages.clear();
+		slidePages.clear();
+		slidePages.add(page);
 		this.targetDir = targetDir;
 		this.dbDir = db.getDatabase(); 
 		filename = targetDir + File.separatorChar + 
@@ -56,40 +62,59 @@ public class S5ExportWikiRenderer extends HtmlExportWikiRenderer {
 		templateFile = dbDir + File.separatorChar + "s5.template";
 		template = IOUtils.toString(new FileInputStream(templateFile));
 		
-		htmlText = null;
-		htmlText = new StringBuffer();
-		while(toConvert.size() > 0){
-			currentPage = (String)toConvert.getFirst();
-			converted.add(currentPage);
-			if(currentPage.indexOf(".radi") < 0){
-				currentPage += ".radi";
-			}
-			pageData = db.getWikiSource(currentPage);
+		/*
+		 * The slides are collected in a scratch file first: the title for 
+		 * the template is only known after all pages have been rendered.
+		 */
+		slideFile = File.createTempFile("slides", ".tmp", new File(targetDir));
+		try{
+			Writer slides = new BufferedWriter(new FileWriter(slideFile));
+			try{
+				while((currentPage = slidePages.next()) != null){
+					pageData = db.getWikiChars(currentPage);
 /*
-			renderedPage = render(new HtmlWikiTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
+					render(new HtmlWikiTokenFilter(new 
+							JFlexWikiLexer(new StringReader(pageData))), slides);
 */
-			renderedPage = render(new StateMachineTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
-			htmlText.append(renderedPage);
-			if(slideOpen){
-				htmlText.append(tagMap.getProperty("endslide"));
-				slideOpen = false;
-			} 
-			toConvert.removeFirst();
+					render(createTokenProducer(pageData), slides);
+					if(slideOpen){
+						slides.write(tagMap.getProperty("endslide"));
+						slideOpen = false;
+					} 
+				}
+				if(slideOpen){
+					slides.write(tagMap.getProperty("endslide"));
+					slideOpen = false;
+				} 
+			}finally{
+				slides.close();
+			}
+	        int idx = template.indexOf(contentID);
+			PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+			try{
+				out.print(template.substring(0,idx));
+				Reader in = new FileReader(slideFile);
+				try{
+					IOUtils.copy(in, out);
+				}finally{
+					in.close();
+				}
+				out.print(template.substring(idx +contentID.length(), template.length()));
+				out.println();
+			}finally{
+				out.close();
+			}
+		}finally{
+			slideFile.delete();
 		}
-		if(slideOpen){
-			htmlText.append(tagMap.getProperty("endslide"));
-			slideOpen = false;
-		} 
-        int idx = template.indexOf(contentID);
-        StringBuffer pres = new StringBuffer(template.substring(0,idx));
-        pres.append(htmlText);
-        pres.append(template.substring(idx +contentID.length(), template.length()));
-		PrintWriter out = new PrintWriter(new FileWriter(filename));
-		out.println(pres.toString());
-		out.close();
-		out = null;
+		finishCopies(db);
+	}
+	/**
+	 * Headers replace result while the title is collected, so a page is
+	 * only written out when it is complete.
+	 */
+	protected boolean canFlush(){
+		return false;
 	}
 	/**
 	 * start of header processing: count the =
@@ -23,9 +23,15 @@ import java.util.Stack;
 import java.io.IOException;
 	
 public class StateMachineTokenFilter implements TokenProducer {
-	private Stack tokenStack, stateStack;
+	private Stack tokenStack;
+	private int stateStack[];
+	private int stateTop;
     private int defDepth, listDepth, headerDepth;
     private TokenProducer input;
+    /*
+     * the implicit tokens carry no text, one instance of each is enough
+     */
+    private WikiToken implicitTokens[];
 	/**
 	 * definition of states
 	 */
@@ -48,17 +54,28 @@ public class StateMachineTokenFilter implements TokenProducer {
 	public StateMachineTokenFilter(TokenProducer i ){
 		input = i;
 		tokenStack = new Stack();
-		stateStack = new Stack();
-		stateStack.push(new Integer(EMPTY));
+		stateStack = new int[16];
+		stateTop = 0;
+		pushState(EMPTY);
+		implicitTokens = new WikiToken[WikiToken.EOF + 1];
 		defDepth = 0;
 		listDepth = 0; 
 		headerDepth = 0;
 	}
 
+	/**
+	 * check if the filter is outside of any paragraph, list, table or 
+	 * header and has no tokens pending
+	 * @return true when the filter is in its initial state
+	 */
+	public boolean isEmpty(){
+		return stateTop == 1 && listDepth == 0 && defDepth == 0 && 
+			tokenStack.empty();
+	}
 	public WikiToken nextToken() throws IOException {
 		WikiToken tok;
 		int returnStatus = KEEP;
-		Integer state;
+		int state;
 		
 		/*
 		 * if there is something on the stack: serve it first
@@ -76,8 +93,8 @@ public class StateMachineTokenFilter implements TokenProducer {
 //			System.out.println("End detected");
 		}
 		do {
-			state = (Integer)stateStack.peek();
-			switch(state.intValue()){
+			state = stateStack[stateTop - 1];
+			switch(state){
 			case EMPTY:
 				returnStatus = processEmpty(tok);
 				break;
@@ -131,7 +148,7 @@ public class StateMachineTokenFilter implements TokenProducer {
 		}
 		switch(tok.getType()){
 		case WikiToken.ENDHEADER:
-			stateStack.pop();
+			popState();
 			return KEEP;
 		case WikiToken.DEFLIST:
 		case WikiToken.MULTIROW:
@@ -152,7 +169,7 @@ public class StateMachineTokenFilter implements TokenProducer {
 			}
 			plus.setText(stb.toString());
 			tokenStack.insertElementAt(plus, 0);
-			stateStack.pop();
+			popState();
 			return KEEP;
 		}
 		return KEEP;
@@ -173,32 +190,32 @@ public class StateMachineTokenFilter implements TokenProducer {
 		case WikiToken.STARTBOLD:
 		case WikiToken.STARTITAL:
 		case WikiToken.STARTCOLOUR:
-				stateStack.push(new Integer(PARAGRAPH));
-				tokenStack.insertElementAt(new WikiToken(WikiToken.PAROPEN),0);
+				pushState(PARAGRAPH);
+				tokenStack.insertElementAt(implicit(WikiToken.PAROPEN),0);
 				return CHANGE;
 		case WikiToken.ULLIST:
-			stateStack.push(new Integer(ULLIST));
-			tokenStack.insertElementAt(new WikiToken(WikiToken.ULLISTOPEN),0);
+			pushState(ULLIST);
+			tokenStack.insertElementAt(implicit(WikiToken.ULLISTOPEN),0);
 			listDepth++;
 			return CHANGE;
 		case WikiToken.OLLIST:
-			stateStack.push(new Integer(OLLIST));
-			tokenStack.insertElementAt(new WikiToken(WikiToken.OLLISTOPEN),0);
+			pushState(OLLIST);
+			tokenStack.insertElementAt(implicit(WikiToken.OLLISTOPEN),0);
 			listDepth++;
 			return CHANGE;
 		case WikiToken.TABLEROW:
 		case WikiToken.MULTIROW:
-			stateStack.push(new Integer(TABLE));
-			tokenStack.insertElementAt(new WikiToken(WikiToken.TABLEOPEN),0);
+			pushState(TABLE);
+			tokenStack.insertElementAt(implicit(WikiToken.TABLEOPEN),0);
 			return CHANGE;
 		case WikiToken.DEFLIST:
-			stateStack.push(new Integer(DEFLIST));
-			tokenStack.insertElementAt(new WikiToken(WikiToken.DEFLISTOPEN),0);
+			pushState(DEFLIST);
+			tokenStack.insertElementAt(implicit(WikiToken.DEFLISTOPEN),0);
 			defDepth = 1;
 			return CHANGE;
 		case WikiToken.STARTHEADER:
-			headerDepth = countListDepth(tok.getText());
-			stateStack.push(new Integer(HEADER));
+			headerDepth = countListDepth(tok);
+			pushState(HEADER);
 			return KEEP;
 		case WikiToken.PAREND:
 			tok.setType(WikiToken.CHAR);
@@ -214,13 +231,13 @@ public class StateMachineTokenFilter implements TokenProducer {
 	protected int processParagraph(WikiToken tok){
 
 		if(tok == null){
-			tokenStack.insertElementAt(new WikiToken(WikiToken.PAREND),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.PAREND),0);
+			popState();
 			return CHANGE;
 		}
 		switch(tok.getType()){
 		case WikiToken.PAREND:	
-			stateStack.pop();
+			popState();
 			return KEEP;
 		case WikiToken.STARTHEADER:
 		case WikiToken.RULE:
@@ -235,8 +252,8 @@ public class StateMachineTokenFilter implements TokenProducer {
 		case WikiToken.ENDCENTER:
 		case WikiToken.STARTQUOTE:
 		case WikiToken.ENDQUOTE:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.PAREND),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.PAREND),0);
+			popState();
 			return CHANGE;
 		}
 		return KEEP;
@@ -248,27 +265,27 @@ public class StateMachineTokenFilter implements TokenProducer {
 	 */
 	protected int processULList(WikiToken tok){
 		if(tok == null){
-			tokenStack.insertElementAt(new WikiToken(WikiToken.ULLISTCLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.ULLISTCLOSE),0);
+			popState();
 			listDepth--;
 			return CHANGE;
 		}
-		int tokDepth = countListDepth(tok.getText());
+		int tokDepth = countListDepth(tok);
 		switch(tok.getType()){
 		case WikiToken.ULLIST:
 			if(tokDepth == listDepth){
-				stateStack.push(new Integer(ULITEM));
+				pushState(ULITEM);
 				return KEEP;
 			}
 			if(tokDepth < listDepth){
-				tokenStack.insertElementAt(new WikiToken(WikiToken.ULLISTCLOSE),0);
-				stateStack.pop();
+				tokenStack.insertElementAt(implicit(WikiToken.ULLISTCLOSE),0);
+				popState();
 				listDepth--;
 				return CHANGE;
 			}
 			if(tokDepth > listDepth){
-				tokenStack.insertElementAt(new WikiToken(WikiToken.ULLISTOPEN),0);
-				stateStack.push(new Integer(ULLIST));
+				tokenStack.insertElementAt(implicit(WikiToken.ULLISTOPEN),0);
+				pushState(ULLIST);
 				listDepth++;
 				return CHANGE;
 			}
@@ -285,8 +302,8 @@ public class StateMachineTokenFilter implements TokenProducer {
 		case WikiToken.OLLIST:
 		case WikiToken.STARTCENTER:
 		case WikiToken.STARTQUOTE:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.ULLISTCLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.ULLISTCLOSE),0);
+			popState();
 			listDepth--;
 			return CHANGE;
 		}
@@ -295,32 +312,32 @@ public class StateMachineTokenFilter implements TokenProducer {
 	protected int processULItem(WikiToken tok){
 
 		if(tok == null){
-			tokenStack.insertElementAt(new WikiToken(WikiToken.ULITEMCLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.ULITEMCLOSE),0);
+			popState();
 			return CHANGE;
 		}
-		int tokDepth = countListDepth(tok.getText());
+		int tokDepth = countListDepth(tok);
 		switch(tok.getType()){
 		case WikiToken.ULLIST:
 				if(tokDepth <= listDepth) {
-					tokenStack.insertElementAt(new WikiToken(WikiToken.ULITEMCLOSE),0);
-					stateStack.pop();
+					tokenStack.insertElementAt(implicit(WikiToken.ULITEMCLOSE),0);
+					popState();
 					return CHANGE;
 				} else {
-					tokenStack.insertElementAt(new WikiToken(WikiToken.ULLISTOPEN),0);
-					stateStack.push(new Integer(ULLIST));
+					tokenStack.insertElementAt(implicit(WikiToken.ULLISTOPEN),0);
+					pushState(ULLIST);
 					listDepth++;
 					return CHANGE;
 				}
 		case WikiToken.OLLIST:
 			if(tokDepth > listDepth){
-				tokenStack.insertElementAt(new WikiToken(WikiToken.OLLISTOPEN),0);
+				tokenStack.insertElementAt(implicit(WikiToken.OLLISTOPEN),0);
 				listDepth++;
-				stateStack.push(new Integer(OLLIST));
+				pushState(OLLIST);
 				return CHANGE;
 			} else {
-				tokenStack.insertElementAt(new WikiToken(WikiToken.ULITEMCLOSE),0);
-				stateStack.pop();
+				tokenStack.insertElementAt(implicit(WikiToken.ULITEMCLOSE),0);
+				popState();
 				return CHANGE;
 			}
 		case WikiToken.TABLEROW:
@@ -334,8 +351,8 @@ public class StateMachineTokenFilter implements TokenProducer {
 		case WikiToken.STARTHEADER:
 		case WikiToken.RULE:
 		case WikiToken.STRONGRULE:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.ULITEMCLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.ULITEMCLOSE),0);
+			popState();
 			return CHANGE;
 		
 		}
@@ -348,27 +365,27 @@ public class StateMachineTokenFilter implements TokenProducer {
 	 */
 	protected int processOLList(WikiToken tok){
 		if(tok == null){
-			tokenStack.insertElementAt(new WikiToken(WikiToken.OLLISTCLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.OLLISTCLOSE),0);
+			popState();
 			listDepth--;
 			return CHANGE;
 		}
-		int tokDepth = countListDepth(tok.getText());
+		int tokDepth = countListDepth(tok);
 		switch(tok.getType()){
 		case WikiToken.OLLIST:
 			if(tokDepth == listDepth){
-				stateStack.push(new Integer(OLITEM));
+				pushState(OLITEM);
 				return KEEP;
 			}
 			if(tokDepth < listDepth){
-				tokenStack.insertElementAt(new WikiToken(WikiToken.OLLISTCLOSE),0);
-				stateStack.pop();
+				tokenStack.insertElementAt(implicit(WikiToken.OLLISTCLOSE),0);
+				popState();
 				listDepth--;
 				return CHANGE;
 			}
 			if(tokDepth > listDepth){
-				tokenStack.insertElementAt(new WikiToken(WikiToken.OLLISTOPEN),0);
-				stateStack.push(new Integer(OLLIST));
+				tokenStack.insertElementAt(implicit(WikiToken.OLLISTOPEN),0);
+				pushState(OLLIST);
 				listDepth++;
 				return CHANGE;
 			}
@@ -384,8 +401,8 @@ public class StateMachineTokenFilter implements TokenProducer {
 		case WikiToken.MULTIROW:	
 		case WikiToken.ULLIST:
 		case WikiToken.STARTQUOTE:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.OLLISTCLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.OLLISTCLOSE),0);
+			popState();
 			listDepth--;
 			return CHANGE;
 		}
@@ -393,32 +410,32 @@ public class StateMachineTokenFilter implements TokenProducer {
 	}
 	protected int processOLItem(WikiToken tok){
 		if(tok == null){
-			tokenStack.insertElementAt(new WikiToken(WikiToken.OLITEMCLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.OLITEMCLOSE),0);
+			popState();
 			return CHANGE;
 		}
-		int tokDepth = countListDepth(tok.getText());
+		int tokDepth = countListDepth(tok);
 		switch(tok.getType()){
 		case WikiToken.OLLIST:
 			if(tokDepth <= listDepth){
-				tokenStack.insertElementAt(new WikiToken(WikiToken.OLITEMCLOSE),0);
-				stateStack.pop();
+				tokenStack.insertElementAt(implicit(WikiToken.OLITEMCLOSE),0);
+				popState();
 				return CHANGE;
 			} else {
-				tokenStack.insertElementAt(new WikiToken(WikiToken.OLLISTOPEN),0);
-				stateStack.push(new Integer(OLLIST));
+				tokenStack.insertElementAt(implicit(WikiToken.OLLISTOPEN),0);
+				pushState(OLLIST);
 				listDepth++;
 				return CHANGE;
 			}
 		case WikiToken.ULLIST:
 			if(tokDepth > listDepth){
-				tokenStack.insertElementAt(new WikiToken(WikiToken.ULLISTOPEN),0);
+				tokenStack.insertElementAt(implicit(WikiToken.ULLISTOPEN),0);
 				listDepth++;
-				stateStack.push(new Integer(ULLIST));
+				pushState(ULLIST);
 				return CHANGE;
 			} else {
-				tokenStack.insertElementAt(new WikiToken(WikiToken.OLITEMCLOSE),0);
-				stateStack.pop();
+				tokenStack.insertElementAt(implicit(WikiToken.OLITEMCLOSE),0);
+				popState();
 				return CHANGE;
 			}
 		case WikiToken.TABLEROW:
@@ -432,8 +449,8 @@ public class StateMachineTokenFilter implements TokenProducer {
 		case WikiToken.STARTHEADER:
 		case WikiToken.RULE:
 		case WikiToken.STRONGRULE:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.OLITEMCLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.OLITEMCLOSE),0);
+			popState();
 			return CHANGE;
 		
 		}
@@ -441,14 +458,14 @@ public class StateMachineTokenFilter implements TokenProducer {
 	}
 	protected int processDefList(WikiToken tok){
 		if(tok == null){
-			tokenStack.insertElementAt(new WikiToken(WikiToken.DEFLISTCLOSE),0);
+			tokenStack.insertElementAt(implicit(WikiToken.DEFLISTCLOSE),0);
 			defDepth--;
-			stateStack.pop();
+			popState();
 			return CHANGE;
 		}
 		switch(tok.getType()){
 		case WikiToken.DEFLIST:
-			stateStack.push(new Integer(DEFITEM));
+			pushState(DEFITEM);
 			return KEEP;
 		case WikiToken.TABLEROW:
 		case WikiToken.MULTIROW:
@@ -460,29 +477,29 @@ public class StateMachineTokenFilter implements TokenProducer {
 		case WikiToken.STARTHEADER:
 		case WikiToken.RULE:
 		case WikiToken.STRONGRULE:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.DEFLISTCLOSE),0);
+			tokenStack.insertElementAt(implicit(WikiToken.DEFLISTCLOSE),0);
 			defDepth--;
-			stateStack.pop();
+			popState();
 			return CHANGE;
 		}
 		return KEEP;
 	}
 	protected int processDefItem(WikiToken tok){
 		if(tok == null){
-			tokenStack.insertElementAt(new WikiToken(WikiToken.DEFDATACLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.DEFDATACLOSE),0);
+			popState();
 			return CHANGE;
 		}
 		switch(tok.getType()){
 		case WikiToken.ULLIST:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.ULLISTOPEN),0);
+			tokenStack.insertElementAt(implicit(WikiToken.ULLISTOPEN),0);
 			listDepth++;
-			stateStack.push(new Integer(ULLIST));
+			pushState(ULLIST);
 			return CHANGE;
 		case WikiToken.OLLIST:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.OLLISTOPEN),0);
+			tokenStack.insertElementAt(implicit(WikiToken.OLLISTOPEN),0);
 			listDepth++;
-			stateStack.push(new Integer(OLLIST));
+			pushState(OLLIST);
 			return CHANGE;
 		case WikiToken.DEFLIST:
 		case WikiToken.TABLEROW:
@@ -495,8 +512,8 @@ public class StateMachineTokenFilter implements TokenProducer {
 		case WikiToken.STARTHEADER:
 		case WikiToken.RULE:
 		case WikiToken.STRONGRULE:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.DEFDATACLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.DEFDATACLOSE),0);
+			popState();
 			return CHANGE;
 		}
 		return KEEP;
@@ -508,8 +525,8 @@ public class StateMachineTokenFilter implements TokenProducer {
 	 */
 	protected int processTable(WikiToken tok){
 		if(tok == null){
-			tokenStack.insertElementAt(new WikiToken(WikiToken.TABLECLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.TABLECLOSE),0);
+			popState();
 			return CHANGE;
 		}
 		switch(tok.getType()){
@@ -524,8 +541,8 @@ public class StateMachineTokenFilter implements TokenProducer {
 		case WikiToken.STRONGRULE:
 		case WikiToken.ULLIST:
 		case WikiToken.OLLIST:
-			tokenStack.insertElementAt(new WikiToken(WikiToken.TABLECLOSE),0);
-			stateStack.pop();
+			tokenStack.insertElementAt(implicit(WikiToken.TABLECLOSE),0);
+			popState();
 			return CHANGE;
 		}
 		return KEEP;
@@ -535,7 +552,42 @@ public class StateMachineTokenFilter implements TokenProducer {
 	 * @param text The list item text
 	 * @return The stacking depth
 	 */
-	private int countListDepth(String text){
-		return text.trim().length();
+	private int countListDepth(CharSequence text){
+		int start = 0, end = text.length();
+		
+		/*
+		 * this is text.trim().length() without creating Strings
+		 */
+		while(start < end && text.charAt(start) <= ' '){
+			start++;
+		}
+		while(end > start && text.charAt(end - 1) <= ' '){
+			end--;
+		}
+		return end - start;
+	}
+	/**
+	 * get the token for one of the implicit token types
+	 * @param type The token type
+	 * @return The token. It is shared and must not be modified.
+	 */
+	private WikiToken implicit(int type){
+		WikiToken tok = implicitTokens[type];
+		if(tok == null){
+			tok = new WikiToken(type);
+			implicitTokens[type] = tok;
+		}
+		return tok;
+	}
+	private void pushState(int state){
+		if(stateTop >= stateStack.length){
+			int newStack[] = new int[stateStack.length*2];
+			System.arraycopy(stateStack, 0, newStack, 0, stateTop);
+			stateStack = newStack;
+		}
+		stateStack[stateTop++] = state;
+	}
+	private void popState(){
+		stateTop--;
 	}
 }
@@ -0,0 +1,163 @@
+/*
+ * This holds the tag mappings of a renderer, as read from its property file,
+ * compiled for fast lookup while rendering: the tag for each token type is
+ * kept in an array indexed by the type, and the tags for table cells
+ * spanning several columns are split at the %d for the column count.
+ *
+ * A tag file is read and compiled only once. The TagTemplates are then shared
+ * by all renderers using that file and are never changed.
+ *
+ * copyright: GPL
+ */
+package radieschen.wiki;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Properties;
+
+public class TagTemplates {
+	/*
+	 * the token types which are rendered by a tag and the names of their tags
+	 */
+	private final static Object TOKENNAMES[][] = {
+		{new Integer(WikiToken.ENDBOLD),"endbold"},
+		{new Integer(WikiToken.ENDITAL),"endital"},
+		{new Integer(WikiToken.ENDSUB),"endsub"},
+		{new Integer(WikiToken.ENDSUPER),"endsuper"},
+		{new Integer(WikiToken.OLITEMCLOSE),"endolitem"},
+		{new Integer(WikiToken.OLLIST),"startolitem"},
+		{new Integer(WikiToken.OLLISTCLOSE),"endol"},
+		{new Integer(WikiToken.OLLISTOPEN),"startol"},
+		{new Integer(WikiToken.PAREND),"parend"},
+		{new Integer(WikiToken.PAROPEN),"parstart"},
+		{new Integer(WikiToken.STARTBOLD),"startbold"},
+		{new Integer(WikiToken.STARTITAL),"startital"},
+		{new Integer(WikiToken.STARTSUB),"startsub"},
+		{new Integer(WikiToken.STARTSUPER),"startsuper"},
+		{new Integer(WikiToken.TABLECLOSE),"endtable"},
+		{new Integer(WikiToken.TABLEOPEN),"tablestart"},
+		{new Integer(WikiToken.TABLEROW),"tablerowstart"},
+		{new Integer(WikiToken.TABLEEND),"tablerowend"},
+		{new Integer(WikiToken.TABLESEP),"tablesep"},
+		{new Integer(WikiToken.ULITEMCLOSE),"endulitem"},
+		{new Integer(WikiToken.ULLIST),"startulitem"},
+		{new Integer(WikiToken.ULLISTCLOSE),"endul"},
+		{new Integer(WikiToken.ULLISTOPEN),"startul"},
+		{new Integer(WikiToken.DEFLISTCLOSE),"enddef"},
+		{new Integer(WikiToken.DEFLISTOPEN),"startdef"},
+		{new Integer(WikiToken.DEFITEMCLOSE),"defitemclose"},
+		{new Integer(WikiToken.DEFDATACLOSE),"defdataclose"},
+		{new Integer(WikiToken.DEFLIST),"defdata"},
+		{new Integer(WikiToken.RULE),"rule"},
+		{new Integer(WikiToken.STRONGRULE),"strongrule"},
+		{new Integer(WikiToken.LINEBREAK),"linebreak"},
+		{new Integer(WikiToken.STARTCENTER),"startcenter"},
+		{new Integer(WikiToken.ENDCENTER),"endcenter"},
+		{new Integer(WikiToken.STARTQUOTE),"startquote"},
+		{new Integer(WikiToken.ENDQUOTE),"endquote"},
+		{new Integer(WikiToken.ENDCOLOUR),"endcolour"},
+		{new Integer(WikiToken.MULTIROW),"tablerowmultistart"},
+		{new Integer(WikiToken.MULTISEP),"tablemultisep"},
+	};
+	private final static String COLUMNS = "%d";
+	private static HashMap loaded = new HashMap();
+
+	private Properties tags;
+	private boolean mapped[];
+	private String tokenTags[];
+	private String multiPrefix[], multiSuffix[];
+
+	/**
+	 * get the compiled tags of a tag file
+	 * @param tagpath The resource path of the property file with the tags
+	 * @return The shared TagTemplates for this file
+	 * @throws IOException when the file cannot be found or read
+	 */
+	public static synchronized TagTemplates get(String tagpath) throws IOException{
+		TagTemplates t = (TagTemplates)loaded.get(tagpath);
+		if(t == null){
+			t = new TagTemplates(tagpath);
+			loaded.put(tagpath, t);
+		}
+		return t;
+	}
+	private TagTemplates(String tagpath) throws IOException{
+		int i, type, size = 0, idx;
+		String tag;
+
+		tags = new Properties();
+		URL ulli = BaseWikiRenderer.class.getResource(tagpath);
+		if(ulli == null){
+			throw new IOException("Tag property file not found");
+		}
+		InputStream in = ulli.openStream();
+		try{
+			tags.load(in);
+		}finally{
+			in.close();
+		}
+
+		for(i = 0; i < TOKENNAMES.length; i++){
+			size = Math.max(size, ((Integer)TOKENNAMES[i][0]).intValue() + 1);
+		}
+		mapped = new boolean[size];
+		tokenTags = new String[size];
+		multiPrefix = new String[size];
+		multiSuffix = new String[size];
+		for(i = 0; i < TOKENNAMES.length; i++){
+			type = ((Integer)TOKENNAMES[i][0]).intValue();
+			tag = tags.getProperty((String)TOKENNAMES[i][1]);
+			mapped[type] = true;
+			tokenTags[type] = tag;
+			if(tag != null){
+				idx = tag.indexOf(COLUMNS);
+				if(idx >= 0){
+					multiPrefix[type] = tag.substring(0, idx);
+					multiSuffix[type] = tag.substring(idx + COLUMNS.length());
+				}
+			}
+		}
+	}
+	/**
+	 * get a tag by name
+	 * @param name The name of the tag in the property file
+	 * @return The tag or null when there is none
+	 */
+	public String getProperty(String name){
+		return tags.getProperty(name);
+	}
+	/**
+	 * get the tag for a token type
+	 * @param type The token type
+	 * @return The tag or null when the tag file has no tag for the type
+	 * @throws IOException when the type is not one rendered by a tag
+	 */
+	public String getTag(int type) throws IOException{
+		if(type < 0 || type >= mapped.length || !mapped[type]){
+			throw new IOException("Bad token maping");
+		}
+		return tokenTags[type];
+	}
+	/**
+	 * append the tag for a table cell spanning several columns
+	 * @param stb The buffer to append to
+	 * @param type The token type, MULTIROW or MULTISEP
+	 * @param columns The number of columns spanned, put in for %d
+	 * @throws IOException when the type is not one rendered by a tag
+	 */
+	public void appendMulti(StringBuffer stb, int type, int columns) throws IOException{
+		String tag = getTag(type);
+		if(tag == null){
+			return;
+		}
+		if(multiPrefix[type] == null){
+			stb.append(tag);
+			return;
+		}
+		stb.append(multiPrefix[type]);
+		stb.append(columns);
+		stb.append(multiSuffix[type]);
+	}
+}
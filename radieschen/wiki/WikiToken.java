@@ -8,7 +8,7 @@
  */  
 package radieschen.wiki;
 
-public class WikiToken {
+public class WikiToken implements CharSequence {
 	public static final int STARTHEADER =  4; 
 	public static final int ENDHEADER   =  5; 
 	public static final int STARTCHAR   =  6; 
@@ -45,6 +45,7 @@ public class WikiToken {
 	public static final int MULTISEP    =  38; // multicolumn table separator
 	public static final int MULTIROW    =  39; // multicolumn table row start
 	public static final int SYMBOL      =  40;
+	public static final int TEXT        =  41; // run of CHAR tokens
 	
 	/**
 	 * additional implicit tokens
@@ -66,6 +67,8 @@ public class WikiToken {
 	public static final int EOF          = 113;
 
 	private String text;
+	private char buffer[];
+	private int offset, length;
 	private int column, line, type;
 	
 	public WikiToken(int type, String txt, int l, int col){
@@ -80,6 +83,26 @@ public class WikiToken {
 		line = 0;
 		column = 0;
 	}
+	/**
+	 * Point this token at a region of a character buffer. This allows a lexer
+	 * to hand out the same token object over and over again without copying 
+	 * the text. Such a token is only valid until the next token is requested.
+	 * @param type The token type
+	 * @param buf The buffer holding the text
+	 * @param off The start of the text in buf
+	 * @param len The length of the text
+	 * @param l The line number
+	 * @param col The column number
+	 */
+	public void set(int type, char buf[], int off, int len, int l, int col){
+		this.type = type;
+		buffer = buf;
+		offset = off;
+		length = len;
+		text = null;
+		line = l;
+		column = col;
+	}
 	
 	public int getColumn() {
 		return column;
@@ -98,11 +121,15 @@ public class WikiToken {
 	}
 
 	public String getText() {
+		if(text == null){
+			text = new String(buffer, offset, length);
+		}
 		return text;
 	}
 
 	public void setText(String text) {
 		this.text = text;
+		buffer = null;
 	}
 
 	public int getType() {
@@ -112,4 +139,41 @@ public class WikiToken {
 	public void setType(int type) {
 		this.type = type;
 	}
+	/*
+	 * CharSequence view on the token text, which does not create a String
+	 */
+	public int length() {
+		if(text != null){
+			return text.length();
+		}
+		return length;
+	}
+	
+	public char charAt(int index) {
+		if(text != null){
+			return text.charAt(index);
+		}
+		return buffer[offset + index];
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		return getText().subSequence(start, end);
+	}
+	
+	public String toString() {
+		return getText();
+	}
+	/**
+	 * append a part of the token text to a buffer in one go
+	 * @param sb The buffer to append to
+	 * @param start The index of the first character to append
+	 * @param end The index after the last character to append
+	 */
+	public void appendTo(StringBuffer sb, int start, int end) {
+		if(text != null){
+			sb.append(text, start, end);
+		} else {
+			sb.append(buffer, offset + start, end - start);
+		}
+	}
 }
@@ -1,22 +1,26 @@
 /*
  * Created on May 3, 2006
- * This is for exporting wiki pages in XHTML format. Linked wiki pages are put into
- * a stack if they have not been converted already. This shall ensure that all pages
- * linked to the start wiki page are converted too. 
+ * This is for exporting wiki pages in XHTML format. Linked wiki pages are queued 
+ * in an ExportTraversal if they have not been seen already. This shall ensure 
+ * that all pages linked to the start wiki page are converted too. 
  *  
  * Author: Mark.Koennecke@psi.ch
  * License: GPL
  */  
 package radieschen.wiki;
 import java.io.*;
+import radieschen.JXPTemplate;
 import radieschen.RadiDatabase;
-import java.util.HashSet;
-import java.util.Stack;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class XHtmlExportWikiRenderer extends HtmlWikiRenderer{
-	private Stack toConvert;
-	private HashSet converted;
+	private ExportTraversal pages;
 	private String targetDir, dbDir;
+	private boolean incremental;
+	private Set pageLinks, pageAssets;
+	private ExportManifest manifest;
 	
 	/**
 	 * a constructor
@@ -24,10 +28,12 @@ public class XHtmlExportWikiRenderer extends HtmlWikiRenderer{
 	 */
 	public XHtmlExportWikiRenderer() throws IOException {
 		super("/radieschen/wiki/xhtml.prop");
-		toConvert = new Stack();
-		converted = new HashSet();
+		pages = new ExportTraversal();
 		targetDir = null;
 		dbDir = null;
+		incremental = true;
+		pageLinks = new LinkedHashSet();
+		pageAssets = new LinkedHashSet();
 	}
 	/**
 	 * format a wiki link. Take care of keeping track of linked pages, too
@@ -47,9 +53,8 @@ public class XHtmlExportWikiRenderer extends HtmlWikiRenderer{
 			name = url;
 		}
 		
-		if(!converted.contains(name) && !toConvert.contains(name)){
-			toConvert.push(name);
-		}
+		pages.add(name);
+		pageLinks.add(name);
 		result = new StringBuffer();
 		result.append(name);
 		result.append(".html");
@@ -58,6 +63,14 @@ public class XHtmlExportWikiRenderer extends HtmlWikiRenderer{
 		}
 		return result.toString();
 	}
+	/**
+	 * set if pages unchanged since the last export into the same directory
+	 * are skipped. See ExportManifest.
+	 * @param incremental true for skipping unchanged pages 
+	 */
+	public void setIncremental(boolean incremental){
+		this.incremental = incremental;
+	}
 	/**
 	 * export a wiki page and its linked pages into targetdir
 	 * @param page The start page
@@ -67,45 +80,56 @@ public class XHtmlExportWikiRenderer extends HtmlWikiRenderer{
 	 */
 	public void export(String page, String targetDir, RadiDatabase db,
 			String cssFile) throws IOException{
-		String renderedPage;
-		String pageData;
-		String currentPage;
-		StringBuffer htmlText;
-		String filename;
-		
-		toConvert.clear();
-		converted.clear();
+		CharSequence source;
+		String currentPage, sourceHash;
+		File file;
+		Iterator it;
 		
-		toConvert.push(page);
+		pages.clear();
+		pages.add(page);
 		this.targetDir = targetDir;
 		this.dbDir = db.getDatabase(); 
+		manifest = new ExportManifest(targetDir, getClass().getName() + "\t" + 
+				targetDir + "\t" + cssFile, incremental);
 		
-		while(!toConvert.empty()){
-			currentPage = (String)toConvert.pop();
-			converted.add(currentPage);
-			if(currentPage.indexOf(".radi") < 0){
-				currentPage += ".radi";
+		while((currentPage = pages.next()) != null){
+			source = db.getWikiPage(currentPage);
+			sourceHash = ExportManifest.hash(source);
+			file = new File(targetDir + File.separatorChar + 
+				currentPage.replaceFirst(".radi",".html"));
+			if(manifest.isUnchanged(currentPage, sourceHash, file)){
+				it = manifest.getLinks(currentPage).iterator();
+				while(it.hasNext()){
+					formatWikiLink((String)it.next());
+				}
+				it = manifest.getAssets(currentPage).iterator();
+				while(it.hasNext()){
+					tryCopyLocalFile(dbDir, targetDir, (String)it.next());
+				}
+				continue;
 			}
-			pageData = db.getWikiSource(currentPage);
+			pageLinks.clear();
+			pageAssets.clear();
+			ExportManifest.PageOutput content = manifest.openPage(file);
+			try{
+				PrintWriter out = content.getWriter();
+				out.print(HtmlHeader.makeXHtmlHeader(currentPage,targetDir,cssFile));
 /*
-			renderedPage = render(new HtmlWikiTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
+				render(new HtmlWikiTokenFilter(new 
+						JFlexWikiLexer(new StringReader(pageData))), out);
 */
-			renderedPage = render(new StateMachineTokenFilter(new 
-					JFlexWikiLexer(new StringReader(pageData))));
-			htmlText = null;
-			htmlText = new StringBuffer();
-			htmlText.append(HtmlHeader.makeXHtmlHeader(currentPage,targetDir,cssFile));
-			htmlText.append(renderedPage);
-			htmlText.append("</body></html>\n");
-			
-			filename = targetDir + File.separatorChar + 
-				currentPage.replaceFirst(".radi",".html");
-			PrintWriter out = new PrintWriter(new FileWriter(filename));
-			out.println(htmlText.toString());
-			out.close();
-			out = null;
+				render(createTokenProducer(db.processJXP(currentPage, source)), out);
+				out.print("</body></html>\n");
+				out.println();
+				manifest.putPage(currentPage, sourceHash, JXPTemplate.hasTags(source),
+						content, file, pageLinks, pageAssets);
+			}finally{
+				content.discard();
+			}
 		}
+		manifest.save();
+		manifest = null;
+		finishCopies(db);
 	}
 	/**
 	 * treat an image: generate an img tag
@@ -113,6 +137,8 @@ public class XHtmlExportWikiRenderer extends HtmlWikiRenderer{
 	 */
 	protected void processImage(String txt){
 		super.processImage(txt);
-		tryCopyLocalFile(dbDir, targetDir,txt.substring(2,txt.length()-2));
+		String file = txt.substring(2,txt.length()-2);
+		tryCopyLocalFile(dbDir, targetDir, file);
+		pageAssets.add(file);
 	}	
 }
@@ -0,0 +1,149 @@
+/*
+ * This generates synthetic wiki pages for benchmarking the lexer, the
+ * token filters and the renderers. Each kind of page stresses a different
+ * part of the pipeline: prose, deeply nested lists, wide tables, big
+ * preformatted blocks and pages with many links. The output only depends
+ * on the size requested, thus runs can be compared with each other.
+ *
+ * copyright: GPL
+ */
+package radieschen.wiki.test;
+
+import java.util.Random;
+
+public class CorpusGenerator {
+	public final static String KINDS[] = {"prose", "lists", "tables",
+		"preformatted", "links", "mixed"};
+	private final static String WORDS[] = {"the", "neutron", "beam", "is",
+		"scattered", "by", "a", "sample", "and", "counted", "in", "detector",
+		"with", "high", "resolution", "while", "motor", "positions", "are",
+		"logged", "to", "file", "for", "later", "analysis", "of", "data"};
+	private Random random;
+
+	public CorpusGenerator(){
+		random = new Random(4711);
+	}
+	/**
+	 * generate a page
+	 * @param kind One of the entries in KINDS
+	 * @param size The approximate size of the page in characters
+	 * @return The wiki source of the page
+	 */
+	public String generate(String kind, int size){
+		StringBuffer page = new StringBuffer(size + 1024);
+		random.setSeed(4711);
+		page.append("= Benchmark page: " + kind + " =\n");
+		while(page.length() < size){
+			if(kind.equals("prose")){
+				appendProse(page);
+			} else if(kind.equals("lists")){
+				appendList(page);
+			} else if(kind.equals("tables")){
+				appendTable(page);
+			} else if(kind.equals("preformatted")){
+				appendPreformatted(page);
+			} else if(kind.equals("links")){
+				appendLinks(page);
+			} else if(kind.equals("mixed")){
+				page.append("== Section ==\n");
+				appendProse(page);
+				appendList(page);
+				appendTable(page);
+				appendPreformatted(page);
+				appendLinks(page);
+			} else {
+				throw new IllegalArgumentException("Unknown corpus kind " + kind);
+			}
+		}
+		return page.toString();
+	}
+	private void appendWords(StringBuffer page, int count){
+		for(int i = 0; i < count; i++){
+			if(i > 0){
+				page.append(' ');
+			}
+			page.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+	}
+	private void appendProse(StringBuffer page){
+		for(int i = 0; i < 6; i++){
+			appendWords(page, 8 + random.nextInt(10));
+			switch(random.nextInt(6)){
+			case 0:
+				page.append(" ''");
+				appendWords(page, 2);
+				page.append("''");
+				break;
+			case 1:
+				page.append(" ~~");
+				appendWords(page, 2);
+				page.append("~~");
+				break;
+			case 2:
+				page.append(" <5 & >3");
+				break;
+			}
+			page.append(".\n");
+		}
+		page.append('\n');
+	}
+	private void appendList(StringBuffer page){
+		int depth;
+		char bullet = random.nextBoolean() ? '*' : '#';
+
+		for(int i = 0; i < 24; i++){
+			depth = 1 + (i % 6);
+			for(int j = 0; j < depth; j++){
+				page.append(bullet);
+			}
+			page.append(' ');
+			appendWords(page, 4);
+			page.append('\n');
+		}
+		page.append('\n');
+	}
+	private void appendTable(StringBuffer page){
+		for(int row = 0; row < 10; row++){
+			page.append("||");
+			for(int col = 0; col < 12; col++){
+				page.append(' ');
+				appendWords(page, 1);
+				page.append(" ||");
+			}
+			page.append('\n');
+		}
+		page.append('\n');
+	}
+	private void appendPreformatted(StringBuffer page){
+		page.append("{{{\n");
+		for(int i = 0; i < 40; i++){
+			page.append("    value[" + i + "] = " + random.nextInt(10000) +
+				"; /* <raw> */\n");
+		}
+		page.append("}}}\n\n");
+	}
+	private void appendLinks(StringBuffer page){
+		for(int i = 0; i < 10; i++){
+			page.append("See [Page" + random.nextInt(50) + "] and [[Topic" +
+				random.nextInt(50) + "]] or [http://www.psi.ch|PSI] ");
+			appendWords(page, 3);
+			page.append(".\n");
+		}
+		page.append('\n');
+	}
+	/**
+	 * print a generated page
+	 * @param argv kind and size of the page
+	 */
+	public static void main(String argv[]){
+		if(argv.length < 1){
+			System.out.println("Usage: CorpusGenerator kind [size]");
+			return;
+		}
+		int size = 64*1024;
+		if(argv.length > 1){
+			size = Integer.parseInt(argv[1]);
+		}
+		System.out.println(new CorpusGenerator().generate(argv[0], size));
+	}
+}
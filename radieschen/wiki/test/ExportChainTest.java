@@ -0,0 +1,104 @@
+/*
+ * A test for the parallel HTML export on a long chain of pages, each page
+ * linking to the next one only. Such a chain used to make the export
+ * recurse once per page. The chain is exported sequentially and in
+ * parallel and each export must write every page.
+ *
+ * Usage: ExportChainTest [pages [threads]]
+ *
+ * copyright: GPL
+ */
+package radieschen.wiki.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+import radieschen.RadiDatabase;
+import radieschen.wiki.HtmlExportWikiRenderer;
+
+public class ExportChainTest {
+	public static void main(String argv[]){
+		int pages = 20000, threads = 4;
+		File dir = null;
+		boolean ok;
+
+		try{
+			if(argv.length > 0){
+				pages = Integer.parseInt(argv[0]);
+			}
+			if(argv.length > 1){
+				threads = Integer.parseInt(argv[1]);
+			}
+			dir = File.createTempFile("radichain", "");
+			dir.delete();
+			File db = new File(dir, "db");
+			db.mkdirs();
+			makeChain(db, pages);
+			RadiDatabase radi = new RadiDatabase(db.getPath());
+			ok = runExport(radi, new File(dir, "sequential"), 1, pages);
+			ok = runExport(radi, new File(dir, "parallel"), threads, pages) && ok;
+		}catch(Throwable eva){
+			System.out.println("FAILED: " + eva);
+			eva.printStackTrace();
+			ok = false;
+		}finally{
+			if(dir != null){
+				try{
+					FileUtils.deleteDirectory(dir);
+				}catch(IOException eva){}
+			}
+		}
+		System.out.println(ok ? "OK" : "FAILED");
+		System.exit(ok ? 0 : 1);
+	}
+	/**
+	 * write the chain of pages
+	 * @param db The database directory
+	 * @param pages The number of pages
+	 * @throws IOException when things go wrong
+	 */
+	private static void makeChain(File db, int pages) throws IOException{
+		FileWriter out;
+
+		for(int i = 0; i < pages; i++){
+			out = new FileWriter(new File(db, "Page" + i + ".radi"));
+			out.write("= Page " + i + " =\n\nThis is page " + i + ".\n");
+			if(i + 1 < pages){
+				out.write("\nNext: [Page" + (i + 1) + "]\n");
+			}
+			out.close();
+		}
+	}
+	/**
+	 * export the chain and check that all pages have been written
+	 * @param db The database
+	 * @param target The export directory
+	 * @param threads The number of threads to export with
+	 * @param pages The number of pages in the chain
+	 * @return true when all pages have been exported
+	 * @throws IOException when the export fails
+	 */
+	private static boolean runExport(RadiDatabase db, File target, int threads,
+			int pages) throws IOException{
+		HtmlExportWikiRenderer h = new HtmlExportWikiRenderer();
+		long start = System.currentTimeMillis();
+		int missing = 0;
+
+		target.mkdirs();
+		h.setParallelism(threads);
+		h.setIncremental(false);
+		h.export("Page0.radi", target.getPath(), db, "radi.css");
+		for(int i = 0; i < pages; i++){
+			if(!new File(target, "Page" + i + ".html").isFile()){
+				missing++;
+			}
+		}
+		System.out.println(threads + " threads: " + (pages - missing) + " of " +
+				pages + " pages exported in " +
+				(System.currentTimeMillis() - start) + " ms");
+		return missing == 0;
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * A benchmark for the wiki rendering pipeline. It measures throughput and
+ * allocation of the lexer on its own, of each token filter draining a
+ * lexer and of each renderer on top of the StateMachineTokenFilter, for
+ * every kind of page the CorpusGenerator knows about.
+ *
+ * Usage: RenderBenchmark [pagesize [seconds [case]]]
+ *
+ * Each case is first run for a while in order to let the JIT settle, then
+ * it is run again for the given time. Allocation is measured through the
+ * per thread allocation counter of the JVM and reported as -1 when the
+ * JVM does not provide one.
+ *
+ * copyright: GPL
+ */
+package radieschen.wiki.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Vector;
+
+import org.apache.commons.io.IOUtils;
+
+import radieschen.RadiDatabase;
+import radieschen.wiki.*;
+
+public class RenderBenchmark {
+	private long seconds;
+	private String selected;
+	private Vector cases;
+	private ThreadMXBean threads;
+	private static Writer discard = new Writer(){
+		public void write(char cbuf[], int off, int len){}
+		public void flush(){}
+		public void close(){}
+	};
+
+	/**
+	 * A single thing to measure
+	 */
+	private static abstract class Case {
+		String name;
+		Case(String name){
+			this.name = name;
+		}
+		/**
+		 * process the page once
+		 * @param page The wiki source
+		 * @return Something depending on the result, in order to keep the
+		 * JIT from optimizing the work away
+		 */
+		abstract int run(String page) throws IOException;
+	}
+	/**
+	 * drain a TokenProducer
+	 */
+	private static int drain(TokenProducer tp) throws IOException {
+		int count = 0;
+		while(tp.nextToken() != null){
+			count++;
+		}
+		return count;
+	}
+	/**
+	 * render through the streaming interface, the way the exporters do
+	 */
+	private static abstract class RenderCase extends Case {
+		BaseWikiRenderer renderer;
+		RenderCase(String name, BaseWikiRenderer renderer){
+			super(name);
+			this.renderer = renderer;
+		}
+		int run(String page) throws IOException {
+			renderer.render(renderer.createTokenProducer(page), discard);
+			return 1;
+		}
+	}
+
+	public RenderBenchmark(long seconds, String selected) throws IOException {
+		this.seconds = seconds;
+		this.selected = selected;
+		threads = ManagementFactory.getThreadMXBean();
+		cases = new Vector();
+		makeCases();
+	}
+
+	private void makeCases() throws IOException {
+		cases.add(new Case("lexer"){
+			int run(String page) throws IOException {
+				return drain(new JFlexWikiLexer(new StringReader(page)));
+			}
+		});
+		cases.add(new Case("lexer-reuse"){
+			int run(String page) throws IOException {
+				return drain(new JFlexWikiLexer(new StringReader(page), true));
+			}
+		});
+		cases.add(new Case("lexer-spans"){
+			int run(String page) throws IOException {
+				JFlexWikiLexer lexer = new JFlexWikiLexer(new StringReader(page), true);
+				lexer.setTextSpans(true);
+				return drain(lexer);
+			}
+		});
+		cases.add(new Case("StateMachineTokenFilter"){
+			int run(String page) throws IOException {
+				return drain(new StateMachineTokenFilter(new
+						JFlexWikiLexer(new StringReader(page), true)));
+			}
+		});
+		/*
+		 * The older filters keep references to tokens, thus they get a lexer
+		 * which creates a new token for each match.
+		 */
+		cases.add(new Case("NewTokenFilter"){
+			int run(String page) throws IOException {
+				return drain(new NewTokenFilter(new
+						JFlexWikiLexer(new StringReader(page))));
+			}
+		});
+		cases.add(new Case("WikiTokenFilter"){
+			int run(String page) throws IOException {
+				return drain(new WikiTokenFilter(new
+						JFlexWikiLexer(new StringReader(page))));
+			}
+		});
+		cases.add(new Case("HtmlWikiTokenFilter"){
+			int run(String page) throws IOException {
+				return drain(new HtmlWikiTokenFilter(new
+						JFlexWikiLexer(new StringReader(page))));
+			}
+		});
+		cases.add(new Case("LatexWikiTokenFilter"){
+			int run(String page) throws IOException {
+				return drain(new LatexWikiTokenFilter(new
+						JFlexWikiLexer(new StringReader(page))));
+			}
+		});
+		cases.add(new Case("HtmlWikiRenderer-string"){
+			HtmlWikiRenderer renderer = new HtmlWikiRenderer();
+			int run(String page) throws IOException {
+				return renderer.render(renderer.createTokenProducer(page)).length();
+			}
+		});
+		cases.add(new RenderCase("HtmlWikiRenderer", new HtmlWikiRenderer()){});
+		cases.add(new RenderCase("HtmlExportWikiRenderer",
+				new HtmlExportWikiRenderer()){});
+		cases.add(new RenderCase("XHtmlExportWikiRenderer",
+				new XHtmlExportWikiRenderer()){});
+		/*
+		 * The slide renderers put the title into the template, which is 
+		 * normally read from the database directory by export().
+		 */
+		cases.add(new RenderCase("S5ExportWikiRenderer", new S5ExportWikiRenderer(){
+			{
+				template = loadTemplate("s5.template");
+			}
+		}){});
+		cases.add(new RenderCase("RadiExportWikiRenderer",
+				new RadiExportWikiRenderer()){});
+		cases.add(new RenderCase("MarkdownRenderer", new MarkdownRenderer()){});
+		cases.add(new RenderCase("LatexWikiRenderer",
+				new LatexWikiRenderer(RadiDatabase.ARTICLE)){});
+		cases.add(new RenderCase("BeamerWikiRenderer", new BeamerWikiRenderer(){
+			{
+				template = loadTemplate("beamer.template");
+			}
+		}){});
+		cases.add(new RenderCase("ProsperWikiRenderer", new ProsperWikiRenderer(){
+			{
+				template = loadTemplate("prosper.template");
+			}
+		}){});
+	}
+	private static String loadTemplate(String name) throws IOException {
+		InputStream in = RadiDatabase.class.getResourceAsStream(name);
+		if(in == null){
+			throw new IOException("Template " + name + " not found");
+		}
+		try{
+			return IOUtils.toString(in);
+		}finally{
+			in.close();
+		}
+	}
+	/**
+	 * get the number of bytes allocated by the current thread so far
+	 * @return The number of bytes or -1 when not supported
+	 */
+	private long allocatedBytes(){
+		if(threads instanceof com.sun.management.ThreadMXBean){
+			return ((com.sun.management.ThreadMXBean)threads).
+				getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	/**
+	 * run a case against a page for the configured time
+	 * @param c The case to run
+	 * @param page The wiki source
+	 * @return The report line for this measurement
+	 */
+	private String measure(Case c, String page) throws IOException {
+		long start, end, deadline, bytes;
+		int ops, sink = 0;
+
+		deadline = System.currentTimeMillis() + seconds*500;
+		while(System.currentTimeMillis() < deadline){
+			sink += c.run(page);
+		}
+
+		ops = 0;
+		bytes = allocatedBytes();
+		start = System.nanoTime();
+		deadline = System.currentTimeMillis() + seconds*1000;
+		while(System.currentTimeMillis() < deadline){
+			sink += c.run(page);
+			ops++;
+		}
+		end = System.nanoTime();
+		if(bytes >= 0){
+			bytes = (allocatedBytes() - bytes)/ops;
+		}
+
+		double secs = (end - start)/1.e9;
+		double mbs = (double)page.length()*ops/secs/(1024*1024);
+		return pad(c.name, 26) + pad(String.valueOf(Math.round(ops/secs)), 12) +
+			pad(String.valueOf(Math.round(mbs*10)/10.), 10) +
+			pad(String.valueOf(bytes), 14) + (sink == 0 ? "!" : "");
+	}
+	private static String pad(String txt, int width){
+		StringBuffer b = new StringBuffer(txt);
+		while(b.length() < width){
+			b.append(' ');
+		}
+		return b.toString();
+	}
+	/**
+	 * run all selected cases against all kinds of pages
+	 * @param pageSize The approximate page size in characters
+	 */
+	public void run(int pageSize) throws IOException {
+		CorpusGenerator gen = new CorpusGenerator();
+		String page;
+		Case c;
+
+		for(int i = 0; i < CorpusGenerator.KINDS.length; i++){
+			page = gen.generate(CorpusGenerator.KINDS[i], pageSize);
+			System.out.println("Corpus " + CorpusGenerator.KINDS[i] + ", " +
+					page.length() + " chars");
+			System.out.println(pad("case", 26) + pad("ops/s", 12) +
+					pad("MB/s", 10) + pad("bytes/op", 14));
+			for(int j = 0; j < cases.size(); j++){
+				c = (Case)cases.get(j);
+				if(selected != null && c.name.indexOf(selected) < 0){
+					continue;
+				}
+				try{
+					System.out.println(measure(c, page));
+				}catch(Exception eva){
+					System.out.println(pad(c.name, 26) + "failed: " + eva);
+				}
+			}
+			System.out.println();
+		}
+	}
+
+	public static void main(String argv[]){
+		int pageSize = 64*1024;
+		long seconds = 2;
+		String selected = null;
+		try{
+			if(argv.length > 0){
+				pageSize = Integer.parseInt(argv[0]);
+			}
+			if(argv.length > 1){
+				seconds = Long.parseLong(argv[1]);
+			}
+			if(argv.length > 2){
+				selected = argv[2];
+			}
+			new RenderBenchmark(seconds, selected).run(pageSize);
+		}catch(Exception eva){
+			System.out.println(eva.getMessage());
+			eva.printStackTrace();
+		}
+	}
+}
@@ -12,16 +12,107 @@ package radieschen.wiki;
 %unicode
 %line
 %column
-%function nextToken
+%function scanToken
 %type WikiToken
 
 %{
 	private boolean superOpen, subOpen, boldOpen, italOpen, centerOpen, quoteOpen, colourOpen;
 	private StringBuffer preformat;
+	private WikiToken token;
+	private boolean textSpans, havePending;
+	private char span[];
+	private WikiToken spanToken, pending;
+	
+	/**
+	 * Creates a scanner which, when reuseTokens is true, hands out a single 
+	 * token object pointing into the scanner buffer instead of a new token
+	 * for each match. Such a token is only valid until the next call to 
+	 * nextToken().
+	 * @param in the java.io.Reader to read input from.
+	 * @param reuseTokens true for reusing the token object
+	 */
+	public JFlexWikiLexer(java.io.Reader in, boolean reuseTokens){
+		this(in);
+		if(reuseTokens){
+			token = new WikiToken(WikiToken.CHAR);
+		}
+	}
 	
 	private WikiToken makeToken(int type){
+		if(token != null){
+			token.set(type, zzBuffer, zzStartRead, zzMarkedPos-zzStartRead, 
+				yyline, yycolumn);
+			return token;
+		}
 		return new WikiToken(type, yytext(), yyline, yycolumn);
 	}
+	
+	/**
+	 * Switch text span mode on or off. In text span mode runs of CHAR 
+	 * tokens are delivered as a single TEXT token.
+	 * @param textSpans true for coalescing CHAR tokens into TEXT tokens
+	 */
+	public void setTextSpans(boolean textSpans){
+		this.textSpans = textSpans;
+		if(textSpans && span == null){
+			span = new char[256];
+			spanToken = new WikiToken(WikiToken.TEXT);
+		}
+	}
+	
+	/**
+	 * Check if the scanner is in its initial state: not within preformatted
+	 * text and with no character formatting left open. Text following at
+	 * this point is scanned as by a new scanner.
+	 * @return true when in the initial state
+	 */
+	public boolean isAtBlockBoundary(){
+		return yystate() == YYINITIAL && !superOpen && !subOpen && 
+			!boldOpen && !italOpen && !centerOpen && !quoteOpen && !colourOpen;
+	}
+	
+	/**
+	 * Get the next token. This coalesces runs of CHAR tokens when in text 
+	 * span mode. As the token following a run has already been scanned, it
+	 * is held back and delivered on the next call. 
+	 * @return The next token or null at the end of input
+	 * @exception java.io.IOException if any I/O-Error occurs
+	 */
+	public WikiToken nextToken() throws java.io.IOException {
+		WikiToken tok;
+		int line, column, length;
+		
+		if(havePending){
+			havePending = false;
+			return pending;
+		}
+		tok = scanToken();
+		if(!textSpans || tok == null || tok.getType() != WikiToken.CHAR){
+			return tok;
+		}
+		line = tok.getLine();
+		column = tok.getColumn();
+		length = 0;
+		while(tok != null && tok.getType() == WikiToken.CHAR){
+			if(length + tok.length() > span.length){
+				char tmp[] = new char[Math.max(span.length*2, length + tok.length())];
+				System.arraycopy(span, 0, tmp, 0, length);
+				span = tmp;
+			}
+			for(int i = 0; i < tok.length(); i++){
+				span[length++] = tok.charAt(i);
+			}
+			tok = scanToken();
+		}
+		pending = tok;
+		havePending = true;
+		if(token == null){
+			return new WikiToken(WikiToken.TEXT, new String(span, 0, length), 
+				line, column);
+		}
+		spanToken.set(WikiToken.TEXT, span, 0, length, line, column);
+		return spanToken;
+	}
 %} 
 
 %init{
@@ -180,5 +271,5 @@ __  {
 			return new WikiToken(WikiToken.PRE, preformat.toString(),
 				 yyline, yycolumn);
          }        
-.|\n  { preformat.append(yytext()); }         
+.|\n  { preformat.append(zzBuffer, zzStartRead, zzMarkedPos-zzStartRead); }         
 }